@@ -0,0 +1,51 @@
+package com.wire.bots.channels;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.bots.channels.model.BatchForward;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON body of one forwarded slice, as ForwardClient writes it and BatchForwardResource reads it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchForwardBenchmark {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"100", "1000"})
+    int batch;
+
+    private BatchForward forward;
+    private byte[] json;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ArrayList<String> bots = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            bots.add(UUID.randomUUID().toString());
+        }
+
+        forward = new BatchForward();
+        forward.bots = bots;
+        forward.payload = "Hello from the benchmark channel, this is a typical short broadcast";
+        json = mapper.writeValueAsBytes(forward);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(forward);
+    }
+
+    @Benchmark
+    public BatchForward deserialize() throws Exception {
+        return mapper.readValue(json, BatchForward.class);
+    }
+}
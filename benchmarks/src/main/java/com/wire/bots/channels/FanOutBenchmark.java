@@ -0,0 +1,85 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.channels.clients.ForwardClient;
+import com.wire.bots.channels.model.Channel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole fan-out: resolving the subscribers, dispatching and sending, against stub clients that take
+ * `latencyMicros` per send. One operation is one broadcast to `subscribers` bots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"1000", "10000"})
+    int subscribers;
+
+    @Param({"0", "1000"})
+    long latencyMicros;
+
+    @Param({"platform", "virtual"})
+    String delivery;
+
+    private StubClients clients;
+    private Dispatcher dispatcher;
+    private Broadcaster broadcaster;
+    private Channel channel;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Config config = new Config();
+        config.host = "http://localhost:8081";
+        config.delivery = Dispatcher.Mode.valueOf(delivery);
+        // a fixed limit, the adaptive one would measure the stub rather than the fan-out
+        config.limiter.min = config.limiter.initial = config.limiter.max = config.window;
+        Service.CONFIG = config;
+
+        channel = new Channel();
+        channel.id = "benchmark";
+        channel.name = "benchmark";
+
+        SubscriberIndex index = new SubscriberIndex(null);
+        for (int i = 0; i < subscribers; i++) {
+            index.add(channel.id, UUID.randomUUID().toString());
+        }
+
+        MetricRegistry metrics = new MetricRegistry();
+        clients = new StubClients(latencyMicros);
+        dispatcher = new Dispatcher(config, metrics);
+        dispatcher.start();
+
+        AdaptiveLimiter limiter = new AdaptiveLimiter("benchmark", config.limiter, config.getMaxInFlight(), metrics);
+        broadcaster = new Broadcaster(clients.repo(),
+                null,
+                index,
+                dispatcher,
+                new ForwardClient(config.getWorkers(), config.forward),
+                new Outbox(null, config.batch, config.checkpoint),
+                limiter,
+                new RetryScheduler(clients.repo(), null, limiter, config.retry),
+                new MediaSpool(config.spool),
+                null,
+                metrics);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        dispatcher.stop();
+    }
+
+    @Benchmark
+    public void fanOut() throws Exception {
+        clients.expect(subscribers);
+        // revoke is the one broadcast that is not recorded in the outbox, so it needs no database
+        broadcaster.revokeBroadcast(channel, UUID.randomUUID().toString());
+        clients.await();
+    }
+}
@@ -0,0 +1,42 @@
+package com.wire.bots.channels;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SliceBenchmark {
+    @Param({"10000", "1000000"})
+    int subscribers;
+
+    @Param({"100", "1000"})
+    int batch;
+
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ids = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+    }
+
+    @Benchmark
+    public void slice(Blackhole blackhole) {
+        Collection<List<String>> slices = Broadcaster.slice(ids, batch);
+        for (List<String> slice : slices) {
+            blackhole.consume(slice.size());
+        }
+    }
+}
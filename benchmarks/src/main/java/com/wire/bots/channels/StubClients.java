@@ -0,0 +1,53 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WireClients that do nothing but take `latency` per send. Every send counts down the latch set up
+ * with {@link #expect(int)}, so a benchmark can wait for an asynchronous fan-out to finish.
+ */
+class StubClients {
+    private final long latency;
+    private final WireClient client;
+    private volatile CountDownLatch sent = new CountDownLatch(0);
+
+    StubClients(long latencyMicros) {
+        this.latency = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.client = (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                new Class<?>[]{WireClient.class},
+                (proxy, method, args) -> invoke(method));
+    }
+
+    ClientRepo repo() {
+        return new ClientRepo(null, null, null) {
+            @Override
+            public WireClient getWireClient(String botId) {
+                return client;
+            }
+        };
+    }
+
+    void expect(int sends) {
+        sent = new CountDownLatch(sends);
+    }
+
+    void await() throws InterruptedException {
+        sent.await();
+    }
+
+    private Object invoke(Method method) {
+        if (method.getName().startsWith("send") || method.getName().equals("deleteMessage")) {
+            if (latency > 0)
+                LockSupport.parkNanos(latency);
+            sent.countDown();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.sdk.Configuration;
+import io.dropwizard.db.ManagedDataSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading subscribers from a local Postgres. The database is taken from -Ddb.host, -Ddb.port, -Ddb.name,
+ * -Ddb.user and -Ddb.password and gets `subscribers` rows for a benchmark channel, removed on tear down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SubscriberLoadBenchmark {
+    private static final String CHANNEL = "benchmark_channel";
+
+    @Param({"10000", "100000"})
+    int subscribers;
+
+    private ManagedDataSource dataSource;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Config config = new Config();
+        Configuration.DB conf = config.postgres = new Configuration.DB();
+        conf.host = System.getProperty("db.host", "localhost");
+        conf.port = Integer.getInteger("db.port", 5432);
+        conf.database = System.getProperty("db.name", "postgres");
+        conf.user = System.getProperty("db.user", "postgres");
+        conf.password = System.getProperty("db.password", "password");
+
+        MetricRegistry metrics = new MetricRegistry();
+        dataSource = config.getDataSourceFactory().build(metrics, "benchmark");
+        dataSource.start();
+        database = new Database(dataSource, metrics);
+
+        for (int i = 0; i < subscribers; i++) {
+            database.insertSubscriber(UUID.randomUUID().toString(), CHANNEL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (String botId : database.getSubscribers(CHANNEL)) {
+            database.unsubscribe(botId);
+        }
+        dataSource.stop();
+    }
+
+    @Benchmark
+    public void getSubscribers(Blackhole blackhole) throws Exception {
+        database.getSubscribers(CHANNEL, blackhole::consume);
+    }
+
+    @Benchmark
+    public void loadIndex(Blackhole blackhole) throws Exception {
+        SubscriberIndex index = new SubscriberIndex(database);
+        index.load();
+        blackhole.consume(index.snapshot(CHANNEL).size());
+    }
+}
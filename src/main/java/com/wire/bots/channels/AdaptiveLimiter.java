@@ -0,0 +1,106 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.sdk.exceptions.HttpException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit on the number of concurrent sends. While the backend answers in time the limit grows by one
+ * per round of `limit` successful sends; on 429/5xx or a latency spike it is multiplied by `backoff`,
+ * at most once per observed round trip so that a burst of errors does not collapse it to the minimum.
+ */
+public class AdaptiveLimiter {
+    public enum Outcome {
+        SUCCESS,    // the backend was healthy
+        OVERLOAD,   // throttled or failing: 429, 5xx, timeouts
+        IGNORE      // errors that say nothing about the load, e.g. 404
+    }
+
+    private final Config.Limiter config;
+    private final int max;
+    private final Timer latency;
+    private final Meter throttles;
+
+    private double limit;
+    private int inFlight;
+    private double baseline; // smoothed latency of healthy sends, nanos
+    private long lastDecrease;
+
+    public AdaptiveLimiter(String name, Config.Limiter config, MetricRegistry metrics) {
+        this(name, config, config.max, metrics);
+    }
+
+    /**
+     * @param max upper bound below `config.max`, e.g. the number of threads the sends run on. Slots above it
+     *            would only queue behind the workers and add their waiting time to the measured latency
+     */
+    public AdaptiveLimiter(String name, Config.Limiter config, int max, MetricRegistry metrics) {
+        this.config = config;
+        this.max = Math.max(config.min, Math.min(config.max, max));
+        this.limit = Math.min(config.initial, this.max);
+        this.latency = metrics.timer(MetricRegistry.name(AdaptiveLimiter.class, name, "latency"));
+        this.throttles = metrics.meter(MetricRegistry.name(AdaptiveLimiter.class, name, "throttles"));
+        metrics.register(MetricRegistry.name(AdaptiveLimiter.class, name, "limit"), (Gauge<Integer>) this::getLimit);
+        metrics.register(MetricRegistry.name(AdaptiveLimiter.class, name, "inFlight"), (Gauge<Integer>) this::getInFlight);
+    }
+
+    /**
+     * Waits for a free slot
+     *
+     * @return false if no slot got free within `timeout`
+     */
+    public synchronized boolean acquire() throws InterruptedException {
+        long deadline = System.nanoTime() + config.timeout.toNanoseconds();
+        while (inFlight >= (int) limit) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @param nanos time since the slot was acquired, including any wait for a worker
+     */
+    public synchronized void release(long nanos, Outcome outcome) {
+        inFlight--;
+        latency.update(nanos, TimeUnit.NANOSECONDS);
+
+        boolean spike = baseline > 0 && nanos > config.tolerance * baseline;
+        if (outcome == Outcome.OVERLOAD || (outcome == Outcome.SUCCESS && spike)) {
+            long now = System.nanoTime();
+            if (lastDecrease == 0 || now - lastDecrease > baseline) {
+                limit = Math.max(config.min, limit * config.backoff);
+                lastDecrease = now;
+                throttles.mark();
+            }
+        } else if (outcome == Outcome.SUCCESS) {
+            baseline = baseline == 0 ? nanos : baseline * 0.95 + nanos * 0.05;
+            limit = Math.min(max, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    public static Outcome classify(Exception e) {
+        if (e instanceof HttpException) {
+            int status = ((HttpException) e).getStatusCode();
+            return status == 429 || status >= 500 ? Outcome.OVERLOAD : Outcome.IGNORE;
+        }
+        return e instanceof IOException ? Outcome.OVERLOAD : Outcome.IGNORE;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,108 @@
+package com.wire.bots.channels;
+
+import com.google.protobuf.ByteString;
+import com.waz.model.Messages;
+import com.wire.bots.sdk.assets.IGeneric;
+import com.wire.bots.sdk.models.AudioMessage;
+import com.wire.bots.sdk.models.ImageMessage;
+import com.wire.bots.sdk.models.VideoMessage;
+
+import java.util.Base64;
+
+/**
+ * Asset message pointing at an asset that is already uploaded: key, token, OTR key and sha256 of the
+ * admin's upload. Sending it costs a few hundred bytes per subscriber instead of re-encrypting and
+ * re-uploading the whole file. It keeps the admin's message id, so revoking the post still works.
+ */
+class AssetReference implements IGeneric {
+    private final Messages.GenericMessage message;
+
+    private AssetReference(Messages.GenericMessage message) {
+        this.message = message;
+    }
+
+    static AssetReference image(ImageMessage msg) {
+        Messages.Asset.Original.Builder original = Messages.Asset.Original.newBuilder()
+                .setMimeType(msg.getMimeType())
+                .setSize(msg.getSize())
+                .setImage(Messages.Asset.ImageMetaData.newBuilder()
+                        .setWidth(msg.getWidth())
+                        .setHeight(msg.getHeight()));
+        return create(String.valueOf(msg.getMessageId()), original, remote(msg.getAssetKey(),
+                msg.getAssetToken(),
+                msg.getOtrKey(),
+                msg.getSha256()));
+    }
+
+    static AssetReference audio(AudioMessage msg) {
+        Messages.Asset.Original.Builder original = Messages.Asset.Original.newBuilder()
+                .setMimeType(msg.getMimeType())
+                .setSize(msg.getSize())
+                .setAudio(Messages.Asset.AudioMetaData.newBuilder()
+                        .setDurationInMillis(msg.getDuration()));
+        if (msg.getName() != null)
+            original.setName(msg.getName());
+        return create(String.valueOf(msg.getMessageId()), original, remote(msg.getAssetKey(),
+                msg.getAssetToken(),
+                msg.getOtrKey(),
+                msg.getSha256()));
+    }
+
+    static AssetReference video(VideoMessage msg) {
+        Messages.Asset.Original.Builder original = Messages.Asset.Original.newBuilder()
+                .setMimeType(msg.getMimeType())
+                .setSize(msg.getSize())
+                .setVideo(Messages.Asset.VideoMetaData.newBuilder()
+                        .setDurationInMillis(msg.getDuration())
+                        .setWidth(msg.getWidth())
+                        .setHeight(msg.getHeight()));
+        if (msg.getName() != null)
+            original.setName(msg.getName());
+        return create(String.valueOf(msg.getMessageId()), original, remote(msg.getAssetKey(),
+                msg.getAssetToken(),
+                msg.getOtrKey(),
+                msg.getSha256()));
+    }
+
+    /**
+     * @param payload as returned by {@link #encode()}
+     */
+    static AssetReference decode(String payload) throws Exception {
+        return new AssetReference(Messages.GenericMessage.parseFrom(Base64.getDecoder().decode(payload)));
+    }
+
+    /**
+     * @return the message as text, to be kept in the outbox or the dead letters
+     */
+    String encode() {
+        return Base64.getEncoder().encodeToString(message.toByteArray());
+    }
+
+    public Messages.GenericMessage createGenericMsg() {
+        return message;
+    }
+
+    private static AssetReference create(String messageId,
+                                         Messages.Asset.Original.Builder original,
+                                         Messages.Asset.RemoteData.Builder remote) {
+        Messages.Asset asset = Messages.Asset.newBuilder()
+                .setOriginal(original)
+                .setUploaded(remote)
+                .build();
+
+        return new AssetReference(Messages.GenericMessage.newBuilder()
+                .setMessageId(messageId)
+                .setAsset(asset)
+                .build());
+    }
+
+    private static Messages.Asset.RemoteData.Builder remote(String key, String token, byte[] otrKey, byte[] sha256) {
+        Messages.Asset.RemoteData.Builder remote = Messages.Asset.RemoteData.newBuilder()
+                .setAssetId(key)
+                .setOtrKey(ByteString.copyFrom(otrKey))
+                .setSha256(ByteString.copyFrom(sha256));
+        if (token != null)
+            remote.setAssetToken(token);
+        return remote;
+    }
+}
@@ -18,8 +18,13 @@
 
 package com.wire.bots.channels;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.wire.bots.channels.clients.ForwardClient;
+import com.wire.bots.channels.model.Broadcast;
 import com.wire.bots.channels.model.Channel;
+import com.wire.bots.channels.model.DeadLetter;
 import com.wire.bots.sdk.ClientRepo;
 import com.wire.bots.sdk.WireClient;
 import com.wire.bots.sdk.assets.Picture;
@@ -27,80 +32,261 @@ import com.wire.bots.sdk.models.AudioMessage;
 import com.wire.bots.sdk.models.ImageMessage;
 import com.wire.bots.sdk.models.TextMessage;
 import com.wire.bots.sdk.models.VideoMessage;
-import com.wire.bots.sdk.server.model.User;
 import com.wire.bots.sdk.tools.Logger;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 class Broadcaster {
-    private final ClientRepo repo;
-    private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(Service.CONFIG.threads);
+    private static final String PICTURE = "picture";
+    private static final String AUDIO = "audio";
+    private static final String VIDEO = "video";
+    private static final String EDIT = "edit";
 
-    Broadcaster(ClientRepo repo) {
+    private final ClientRepo repo;
+    private final StateLoader states;
+    private final SubscriberIndex subscribers;
+    private final Dispatcher dispatcher;
+    private final ForwardClient forwardClient;
+    private final Outbox outbox;
+    private final AdaptiveLimiter limiter;
+    private final RetryScheduler retries;
+    private final MediaSpool spool;
+    private final Ledger ledger;
+    private final MetricRegistry metrics;
+    private final Timer forwardLatency;
+
+    Broadcaster(ClientRepo repo,
+                @Nullable StateLoader states,
+                SubscriberIndex subscribers,
+                Dispatcher dispatcher,
+                ForwardClient forwardClient,
+                Outbox outbox,
+                AdaptiveLimiter limiter,
+                RetryScheduler retries,
+                MediaSpool spool,
+                @Nullable Ledger ledger,
+                MetricRegistry metrics) {
         this.repo = repo;
-        //warmup();
+        this.states = states;
+        this.subscribers = subscribers;
+        this.dispatcher = dispatcher;
+        this.forwardClient = forwardClient;
+        this.outbox = outbox;
+        this.limiter = limiter;
+        this.retries = retries;
+        this.spool = spool;
+        this.ledger = ledger;
+        this.metrics = metrics;
+        this.forwardLatency = metrics.timer(MetricRegistry.name(Broadcaster.class, "forward", "slice"));
     }
 
-    private void broadcastLocally(Channel channel, final TextMessage msg) throws Exception {
-        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(Service.CONFIG.threads);
-        final AtomicInteger success = new AtomicInteger(0);
+    /**
+     * Continues a broadcast that was interrupted by a crash, from its last checkpoint
+     */
+    void resume(Broadcast broadcast, ChannelCache channels) {
+        try {
+            Channel channel = channels.getChannel(broadcast.channel);
+            if (channel == null) {
+                Logger.warning("Resume: unknown channel: %s, broadcast: %s", broadcast.channel, broadcast.id);
+                return;
+            }
+
+            SubscriberIndex.Snapshot ids = getSubscriberIds(channel);
+            if (broadcast.cursor != null)
+                ids = ids.tail(broadcast.cursor);
+
+            Logger.info("Resuming broadcast: %s for Channel: %s, %d subscribers left",
+                    broadcast.id,
+                    channel.name,
+                    ids.size());
+
+            // the tracker is taken only once the send is ready, a failure before the fan-out would leave it running
+            switch (broadcast.type) {
+                case Outbox.TEXT:
+                    broadcastText(channel, ids, outbox.resume(broadcast, ids), broadcast.payload);
+                    break;
+                case Outbox.URL:
+                    RetryScheduler.Send preview = linkPreview(channel, broadcast.payload);
+                    broadcastUrl(channel, ids, outbox.resume(broadcast, ids), broadcast.payload, preview);
+                    break;
+                case Outbox.POST:
+                    TextPost post = TextPost.decode(broadcast.payload);
+                    Ledger.Writer recipients = record(post.getMessageId());
+                    broadcastPost(channel, ids, outbox.resume(broadcast, ids), post, recipients);
+                    break;
+                default:
+                    Logger.warning("Resume: unknown type: %s, broadcast: %s", broadcast.type, broadcast.id);
+            }
+        } catch (Exception e) {
+            Logger.error("Resume: broadcast: %s, %s", broadcast.id, e);
+        }
+    }
 
-        ArrayList<WireClient> subscribers = getSubscribers(channel);
-        Date s = new Date();
-        for (final WireClient client : subscribers) {
-            executor.execute(() -> {
-                try {
-                    client.sendText(msg.getText());
-                    success.incrementAndGet();
-                } catch (Exception e) {
-                    Logger.warning("Bot: %s. Error: %s", client.getId(), e.getMessage());
+    /**
+     * Sends the dead letters again. Letters with the same payload share one {@link RetryScheduler.Send},
+     * so a link preview is fetched once per url, not once per bot.
+     */
+    void replay(List<DeadLetter> letters, ChannelCache channels) {
+        HashMap<String, RetryScheduler.Send> sends = new HashMap<>();
+        for (DeadLetter letter : letters) {
+            try {
+                String key = String.format("%s:%s:%s", letter.type, letter.channel, letter.payload);
+                RetryScheduler.Send send = sends.get(key);
+                if (send == null) {
+                    send = replayable(letter, channels);
+                    sends.put(key, send);
                 }
-            });
+                retries.submit(new RetryScheduler.Delivery(letter.bot.toString(),
+                        letter.channel,
+                        letter.type,
+                        letter.payload,
+                        send,
+                        onReplayed(letter)).replaying(letter.id));
+            } catch (Exception e) {
+                // stays claimed, the next replay after `retry.claim` tries again
+                Logger.error("Replay: dead letter: %d, %s", letter.id, e);
+            }
         }
-        executor.shutdown();
-        executor.awaitTermination(5, TimeUnit.MINUTES);
-        Date e = new Date();
-
-        float elapse = (e.getTime() - s.getTime()) / 1000f;
-        float avg = subscribers.size() / elapse;
-        String log = String.format("Delivered to %d subscribers, in: %.2f sec, avg: %.2f msg/sec",
-                success.get(),
-                elapse,
-                avg);
-        Logger.info(log);
-        //sendToAdminConv(channel.admin, log);
     }
 
-    private void broadcastForward(Channel channel, final TextMessage msg) throws Exception {
-        ArrayList<String> ids = getSubscriberIds(channel);
-        ids.remove(channel.admin);
+    /**
+     * A replayed post that got through is added to the post's ledger, like on the first attempt
+     */
+    @Nullable
+    private Consumer<Boolean> onReplayed(DeadLetter letter) throws Exception {
+        if (ledger == null || !letter.type.equals(Outbox.POST))
+            return null;
+        String messageId = TextPost.decode(letter.payload).getMessageId();
+        return delivered -> {
+            if (delivered)
+                ledger.append(messageId, letter.bot);
+        };
+    }
+
+    private RetryScheduler.Send replayable(DeadLetter letter, ChannelCache channels) throws Exception {
+        switch (letter.type) {
+            case Outbox.TEXT:
+                return client -> client.sendText(letter.payload);
+            case Outbox.POST:
+                TextPost post = TextPost.decode(letter.payload);
+                return client -> client.sendPicture(post);
+            case Outbox.REVOKE:
+                return client -> client.deleteMessage(letter.payload);
+            case Outbox.URL:
+                Channel channel = channels.getChannel(letter.channel);
+                if (channel == null)
+                    throw new IllegalArgumentException("Unknown channel: " + letter.channel);
+                return linkPreview(channel, letter.payload);
+            case PICTURE:
+            case AUDIO:
+            case VIDEO:
+                AssetReference asset = AssetReference.decode(letter.payload);
+                return client -> client.sendPicture(asset);
+            default:
+                throw new IllegalArgumentException("Unknown type: " + letter.type);
+        }
+    }
+
+    private void broadcastLocally(Channel channel, String text) throws Exception {
+        SubscriberIndex.Snapshot ids = getSubscriberIds(channel);
+        Outbox.Tracker tracker = outbox.create(channel.id, Outbox.TEXT, text, ids);
+        broadcastText(channel, ids, tracker, text);
+    }
+
+    private void broadcastText(Channel channel, SubscriberIndex.Snapshot ids, Outbox.Tracker tracker, String text)
+            throws InterruptedException {
+        fanOut(channel, ids, tracker, Outbox.TEXT, text, client -> client.sendText(text), null, null);
+    }
+
+    /**
+     * Sends the text under the admin's message id and records who got it, so it can be revoked and edited
+     */
+    private void broadcastPost(Channel channel, TextPost post) throws Exception {
+        Ledger.Writer recipients = ledger.create(post.getMessageId());
+        SubscriberIndex.Snapshot ids = getSubscriberIds(channel);
+        Outbox.Tracker tracker = outbox.create(channel.id, Outbox.POST, post.encode(), ids);
+        broadcastPost(channel, ids, tracker, post, recipients);
+    }
+
+    private void broadcastPost(Channel channel,
+                               SubscriberIndex.Snapshot ids,
+                               Outbox.Tracker tracker,
+                               TextPost post,
+                               @Nullable Ledger.Writer recipients) throws InterruptedException {
+        fanOut(channel, ids, tracker, Outbox.POST, post.encode(), client -> client.sendPicture(post), recipients, null);
+    }
 
-        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(Service.CONFIG.threads);
+    private void broadcastForward(Channel channel, String text) throws Exception {
+        SubscriberIndex.Snapshot ids = getSubscriberIds(channel);
+        UUID admin = channel.admin != null ? UUID.fromString(channel.admin) : null;
 
-        Date s = new Date();
+        final long s = System.nanoTime();
         final AtomicInteger success = new AtomicInteger(0);
-        for (Collection<String> slice : slice(ids, Service.CONFIG.batch)) {
-            executor.execute(() -> {
-                int status = ForwardClient.forward(slice, msg);
-                if (status == 200)
-                    success.addAndGet(slice.size());
-                else
-                    Logger.warning("Failed to forward slice %d", slice.size());
-            });
+        final Semaphore inFlight = new Semaphore(forwardClient.getMaxConnections());
+        Dispatcher.Job job = dispatcher.newJob();
+        for (Map.Entry<String, List<String>> partition : forwardClient.partition(ids.botIds(admin)).entrySet()) {
+            String worker = partition.getKey();
+            for (List<String> slice : slice(partition.getValue(), Service.CONFIG.batch)) {
+                inFlight.acquire();
+                Timer.Context latency = forwardLatency.time();
+                job.track(forwardClient.forward(worker, slice, text).whenComplete((failed, e) -> {
+                    latency.stop();
+                    inFlight.release();
+                    List<String> undelivered = e != null ? slice : failed;
+                    success.addAndGet(slice.size() - undelivered.size());
+                    if (!undelivered.isEmpty()) {
+                        Logger.warning("Failed to forward %d out of slice %d", undelivered.size(), slice.size());
+                        retryForward(channel, undelivered, text, 0);
+                    }
+                }));
+            }
         }
-        executor.shutdown();
-        executor.awaitTermination(5, TimeUnit.MINUTES);
-        Date e = new Date();
-
-        float elapse = (e.getTime() - s.getTime()) / 1000f;
-        float avg = ids.size() / elapse;
-        String log = String.format("Delivered to %d subscribers, in: %.2f sec, avg: %.2f msg/sec",
-                success.get(),
+        job.seal(() -> report(Outbox.TEXT, s, ids.size(), success.get()));
+    }
+
+    /**
+     * Forwards the bots again after a backoff, through whichever workers are responsible for them by then
+     */
+    private void retryForward(Channel channel, List<String> bots, String text, int attempt) {
+        retries.schedule(attempt, () -> {
+            for (Map.Entry<String, List<String>> partition : forwardClient.partition(bots).entrySet()) {
+                List<String> slice = partition.getValue();
+                forwardClient.forward(partition.getKey(), slice, text).whenComplete((failed, e) -> {
+                    List<String> undelivered = e != null ? slice : failed;
+                    if (!undelivered.isEmpty())
+                        retryForward(channel, undelivered, text, attempt + 1);
+                });
+            }
+        }, () -> {
+            for (String bot : bots) {
+                retries.deadLetter(UUID.fromString(bot), channel.id, Outbox.TEXT, text, "forward failed");
+            }
+        });
+    }
+
+    /**
+     * Records the duration and the rate of a finished broadcast
+     *
+     * @param s start, System.nanoTime()
+     */
+    private void report(String type, long s, int subscribers, int success) {
+        long nanos = System.nanoTime() - s;
+        metrics.timer(name(type, "broadcast")).update(nanos, TimeUnit.NANOSECONDS);
+
+        float elapse = nanos / 1e9f;
+        float avg = subscribers / elapse;
+        metrics.histogram(name(type, "throughput")).update((long) avg);
+
+        String log = String.format("Delivered %s to %d subscribers, in: %.2f sec, avg: %.2f msg/sec",
+                type,
+                success,
                 elapse,
                 avg);
         Logger.info(log);
@@ -108,14 +294,32 @@ class Broadcaster {
     }
 
     void broadcast(Channel channel, TextMessage msg) throws Exception {
-        if (msg.getText().startsWith("http")) {
-            broadcastUrl(channel, msg);
+        broadcast(channel, String.valueOf(msg.getMessageId()), msg.getText());
+    }
+
+    private void broadcast(Channel channel, String messageId, String text) throws Exception {
+        if (ledger != null && !text.startsWith("http") && !Service.CONFIG.forward.enabled)
+            broadcastPost(channel, TextPost.text(messageId, text));
+        else
+            broadcast(channel, text);
+    }
+
+    void broadcast(Channel channel, String text) throws Exception {
+        if (text.startsWith("http")) {
+            broadcastUrl(channel, text);
+        } else if (Service.CONFIG.forward.enabled) {
+            broadcastForward(channel, text);
         } else {
-            broadcastLocally(channel, msg);
+            broadcastLocally(channel, text);
         }
     }
 
     void broadcast(Channel channel, ImageMessage msg) throws Exception {
+        if (Service.CONFIG.media == Media.reference) {
+            broadcastReference(channel, PICTURE, AssetReference.image(msg));
+            return;
+        }
+
         final Picture picture = new Picture(msg.getData(), msg.getMimeType());
         picture.setSize((int) msg.getSize());
         picture.setWidth(msg.getWidth());
@@ -126,70 +330,132 @@ class Broadcaster {
         picture.setSha256(msg.getSha256());
         picture.setMessageId(msg.getMessageId());
 
-        for (final WireClient client : getSubscribers(channel)) {
-            executor.execute(() -> {
-                try {
-                    client.sendPicture(picture);
-                } catch (Exception e) {
-                    Logger.warning("Bot: %s. Error: %s", client.getId(), e.getMessage());
-                }
-            });
-        }
+        fanOut(channel, getSubscriberIds(channel), null, PICTURE, null, client -> client.sendPicture(picture),
+                record(String.valueOf(msg.getMessageId())), null);
     }
 
     void broadcast(Channel channel, final AudioMessage msg) throws Exception {
-        for (final WireClient client : getSubscribers(channel)) {
-            executor.execute(() -> {
-                try {
-                    client.sendAudio(msg.getData(), msg.getName(), msg.getMimeType(), msg.getDuration());
-                } catch (Exception e) {
-                    Logger.warning("Bot: %s. Error: %s", client.getId(), e.getMessage());
-                }
-            });
+        if (Service.CONFIG.media == Media.reference) {
+            broadcastReference(channel, AUDIO, AssetReference.audio(msg));
+            return;
         }
+
+        MediaSpool.Asset audio = spool.spool(msg.getData());
+        msg.setData(null);
+        fanOut(channel, getSubscriberIds(channel), null, AUDIO, null, client -> audio.send(data -> client.sendAudio(data,
+                msg.getName(),
+                msg.getMimeType(),
+                msg.getDuration())), null, audio::close);
     }
 
     void broadcast(Channel channel, final VideoMessage msg) throws Exception {
-        for (final WireClient client : getSubscribers(channel)) {
-            executor.execute(() -> {
-                try {
-                    client.sendVideo(msg.getData(),
-                            msg.getName(),
-                            msg.getMimeType(),
-                            msg.getDuration(),
-                            msg.getHeight(),
-                            msg.getWidth());
-                } catch (Exception e) {
-                    Logger.warning("Bot: %s. Error: %s", client.getId(), e.getMessage());
-                }
-            });
+        if (Service.CONFIG.media == Media.reference) {
+            broadcastReference(channel, VIDEO, AssetReference.video(msg));
+            return;
         }
+
+        MediaSpool.Asset video = spool.spool(msg.getData());
+        msg.setData(null);
+        fanOut(channel, getSubscriberIds(channel), null, VIDEO, null, client -> video.send(data -> client.sendVideo(data,
+                msg.getName(),
+                msg.getMimeType(),
+                msg.getDuration(),
+                msg.getHeight(),
+                msg.getWidth())), null, video::close);
+    }
+
+    /**
+     * Sends every subscriber a reference to the admin's upload. WireClient.sendPicture posts any
+     * IGeneric as it is, so it carries audio and video references too.
+     */
+    private void broadcastReference(Channel channel, String type, AssetReference asset) throws Exception {
+        fanOut(channel, getSubscriberIds(channel), null, type, asset.encode(), client -> client.sendPicture(asset),
+                record(asset.createGenericMsg().getMessageId()), null);
     }
 
+    /**
+     * Revokes the post on the bots the ledger has for it, on every subscriber if there is none. While the post
+     * is still going out the revoke waits for it, so it reaches every bot the post did.
+     */
     void revokeBroadcast(Channel channel, final String messageId) throws Exception {
-        for (final WireClient client : getSubscribers(channel)) {
-            executor.execute(() -> {
-                try {
-                    client.deleteMessage(messageId);
-                } catch (Exception e) {
-                    Logger.error("Bot: %s. Error: %s", client.getId(), e.getMessage());
-                }
-            });
+        if (ledger == null) {
+            revoke(channel, getSubscriberIds(channel), messageId);
+            return;
         }
+
+        ledger.whenClosed(messageId, () -> {
+            try {
+                SubscriberIndex.Snapshot ids = ledger.read(messageId);
+                revoke(channel, ids != null ? ids : getSubscriberIds(channel), messageId);
+            } catch (Exception e) {
+                Logger.error("Revoke: channel: %s, message: %s, %s", channel.id, messageId, e);
+            }
+        });
+    }
+
+    private void revoke(Channel channel, SubscriberIndex.Snapshot ids, String messageId) throws InterruptedException {
+        fanOut(channel, ids, null, Outbox.REVOKE, messageId, client -> client.deleteMessage(messageId), null,
+                ledger != null ? () -> ledger.delete(messageId) : null);
+    }
+
+    /**
+     * Replaces the post on the bots the ledger has for it. Without a ledger for the post, e.g. one sent by another
+     * replica or already expired, the edit goes to the current subscribers, like a revoke, and they make up the
+     * new ledger. While the post is still going out the edit waits for it; until the edit is sent, revokes and
+     * edits of the new message id wait in turn. Edits are retried but not dead-lettered.
+     */
+    void editBroadcast(Channel channel, String replacing, String messageId, String text) throws Exception {
+        if (ledger == null) {
+            edit(channel, getSubscriberIds(channel), replacing, messageId, text, null);
+            return;
+        }
+
+        Ledger.Writer hold = ledger.create(messageId);
+        ledger.whenClosed(replacing, () -> {
+            try {
+                SubscriberIndex.Snapshot ids = ledger.read(replacing);
+                if (ids == null) {
+                    edit(channel, getSubscriberIds(channel), replacing, messageId, text, ledger.create(messageId));
+                    return;
+                }
+
+                ledger.rename(replacing, messageId);
+                edit(channel, ids, replacing, messageId, text, null);
+            } catch (Exception e) {
+                Logger.error("Edit: channel: %s, message: %s, %s", channel.id, replacing, e);
+            } finally {
+                hold.close();
+            }
+        });
+    }
+
+    private void edit(Channel channel,
+                      SubscriberIndex.Snapshot ids,
+                      String replacing,
+                      String messageId,
+                      String text,
+                      @Nullable Ledger.Writer recipients) throws InterruptedException {
+        TextPost edit = TextPost.edit(messageId, replacing, text);
+        fanOut(channel, ids, null, EDIT, null, client -> client.sendPicture(edit), recipients, null);
+    }
+
+    @Nullable
+    private Ledger.Writer record(String messageId) throws IOException {
+        return ledger != null ? ledger.create(messageId) : null;
     }
 
 
     void sendToAdminConv(String adminBot, TextMessage msg) throws Exception {
         WireClient adminClient = repo.getWireClient(adminBot);
         if (adminClient != null) {
-            String userName = getUserName(adminClient, msg.getUserId());
+            String userName = UserHandles.get(adminClient, msg.getUserId());
             adminClient.sendText(String.format("**@%s** wrote: _%s_", userName, msg.getText()));
         }
     }
 
     void sendToAdminConv(String adminBot, ImageMessage msg) throws Exception {
         WireClient adminClient = repo.getWireClient(adminBot);
-        String userName = getUserName(adminClient, msg.getUserId());
+        String userName = UserHandles.get(adminClient, msg.getUserId());
 
         Picture picture = new Picture();
         picture.setMimeType(msg.getMimeType());
@@ -209,10 +475,13 @@ class Broadcaster {
         WireClient adminClient = repo.getWireClient(adminBot);
         if (adminClient != null) {
 
-            String userName = getUserName(adminClient, msg.getUserId());
+            String userName = UserHandles.get(adminClient, msg.getUserId());
 
             adminClient.sendText(String.format("**@%s** has sent:", userName));
-            adminClient.sendAudio(msg.getData(), msg.getName(), msg.getMimeType(), msg.getDuration());
+            if (Service.CONFIG.media == Media.reference)
+                adminClient.sendPicture(AssetReference.audio(msg));
+            else
+                adminClient.sendAudio(msg.getData(), msg.getName(), msg.getMimeType(), msg.getDuration());
         }
     }
 
@@ -220,15 +489,18 @@ class Broadcaster {
         WireClient adminClient = repo.getWireClient(adminBot);
         if (adminClient != null) {
 
-            String userName = getUserName(adminClient, msg.getUserId());
+            String userName = UserHandles.get(adminClient, msg.getUserId());
 
             adminClient.sendText(String.format("**@%s** has sent:", userName));
-            adminClient.sendVideo(msg.getData(),
-                    msg.getName(),
-                    msg.getMimeType(),
-                    msg.getDuration(),
-                    msg.getHeight(),
-                    msg.getWidth());
+            if (Service.CONFIG.media == Media.reference)
+                adminClient.sendPicture(AssetReference.video(msg));
+            else
+                adminClient.sendVideo(msg.getData(),
+                        msg.getName(),
+                        msg.getMimeType(),
+                        msg.getDuration(),
+                        msg.getHeight(),
+                        msg.getWidth());
         }
     }
 
@@ -239,49 +511,170 @@ class Broadcaster {
         }
     }
 
-    private void broadcastUrl(Channel channel, final TextMessage msg) throws Exception {
+    private void broadcastUrl(Channel channel, String url) throws Exception {
+        RetryScheduler.Send preview = linkPreview(channel, url);
+        SubscriberIndex.Snapshot ids = getSubscriberIds(channel);
+        Outbox.Tracker tracker = outbox.create(channel.id, Outbox.URL, url, ids);
+        broadcastUrl(channel, ids, tracker, url, preview);
+    }
+
+    private void broadcastUrl(Channel channel,
+                              SubscriberIndex.Snapshot ids,
+                              Outbox.Tracker tracker,
+                              String url,
+                              RetryScheduler.Send preview) throws InterruptedException {
+        fanOut(channel, ids, tracker, Outbox.URL, url, preview, null, null);
+    }
+
+    private RetryScheduler.Send linkPreview(Channel channel, String url) throws Exception {
         WireClient adminClient = repo.getWireClient(channel.admin);
 
-        final String url = msg.getText();
-        final String title = UrlUtil.extractPageTitle(url);
-        final Picture preview = Cache.getPicture(adminClient, UrlUtil.extractPagePreview(url));
+        final UrlUtil.Preview page = UrlUtil.extractPreview(url);
+        final Picture preview = page.image != null ? Cache.getPicture(adminClient, page.image) : null;
 
-        for (final WireClient client : getSubscribers(channel)) {
-            executor.execute(() -> {
-                try {
-                    client.sendLinkPreview(url, title, preview);
-                } catch (Exception e) {
-                    Logger.error("Bot: %s. Error: %s", client.getId(), e.getMessage());
-                }
-            });
-        }
+        return client -> client.sendLinkPreview(url, page.title, preview);
     }
 
-    private ArrayList<WireClient> getSubscribers(Channel channel) throws Exception {
-        ArrayList<WireClient> ret = new ArrayList<>();
-        for (String botId : getSubscriberIds(channel)) {
-            if (botId.equals(channel.admin))
+    /**
+     * Resolves the subscribers one by one while handing them to the dispatcher. At most CONFIG.window
+     * clients are resolved and not yet sent to at any time, no matter how big the channel is.
+     *
+     * Failed sends are handed to the retry scheduler; a subscriber is reported to the tracker only once
+     * its retries are over, so the checkpoint never moves past a send that could still be lost.
+     *
+     * @param tracker    outbox record of the broadcast, every subscriber is reported to it. Can be null
+     * @param type       message type, names the metrics. Together with the payload it is what gets dead-lettered
+     * @param payload    null for media, those are retried but never dead-lettered
+     * @param recipients records the bots the message was delivered to. Can be null
+     * @param onFinished runs once every subscriber is done, retries included. Can be null
+     */
+    private void fanOut(Channel channel,
+                        SubscriberIndex.Snapshot ids,
+                        @Nullable Outbox.Tracker tracker,
+                        String type,
+                        @Nullable String payload,
+                        RetryScheduler.Send send,
+                        @Nullable Ledger.Writer recipients,
+                        @Nullable Runnable onFinished) throws InterruptedException {
+        UUID admin = channel.admin != null ? UUID.fromString(channel.admin) : null;
+        Semaphore window = new Semaphore(Service.CONFIG.window);
+        Dispatcher.Job job = dispatcher.newJob();
+        Timer latency = metrics.timer(name(type, "send"));
+        Meter delivered = metrics.meter(name(type, "delivered"));
+        Meter failed = metrics.meter(name(type, "failed"));
+        AtomicInteger success = new AtomicInteger(0);
+        Progress progress = new Progress(tracker, ids, recipients, onFinished);
+        long s = System.nanoTime();
+
+        int count = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            final int index = i;
+            if (states != null && i % states.getBatch() == 0)
+                prefetch(ids, i);
+
+            if (admin != null
+                    && ids.msb(i) == admin.getMostSignificantBits()
+                    && ids.lsb(i) == admin.getLeastSignificantBits()) {
+                progress.skip(index);
                 continue;
+            }
 
-            WireClient wireClient = repo.getWireClient(botId);
-            if (wireClient != null)
-                ret.add(wireClient);
+            window.acquire();
+            String botId = ids.get(i).toString();
+            boolean acquired = false;
+            try {
+                WireClient client = repo.getWireClient(botId);
+                if (client == null) {
+                    window.release();
+                    progress.done(index, false);
+                    continue;
+                }
+
+                acquired = limiter.acquire();
+                if (!acquired)
+                    throw new RejectedExecutionException("Throttled");
+                // the limiter sees the time spent queued for a worker too, so a saturated pool reads as load
+                long acquiredAt = System.nanoTime();
+
+                job.execute(() -> {
+                    Exception error = null;
+                    AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.SUCCESS;
+                    long start = System.nanoTime();
+                    try {
+                        send.send(client);
+                    } catch (Exception e) {
+                        error = e;
+                        outcome = AdaptiveLimiter.classify(e);
+                        Logger.warning("Bot: %s. Error: %s", botId, e.getMessage());
+                    } finally {
+                        long end = System.nanoTime();
+                        latency.update(end - start, TimeUnit.NANOSECONDS);
+                        limiter.release(end - acquiredAt, outcome);
+                        window.release();
+                    }
+
+                    if (error == null) {
+                        delivered.mark();
+                        success.incrementAndGet();
+                        progress.done(index, true);
+                    } else {
+                        failed.mark();
+                        retries.failed(delivery(channel, botId, type, payload, send, progress, index), error);
+                    }
+                });
+                count++;
+            } catch (Exception e) {
+                if (acquired)
+                    limiter.release(0, AdaptiveLimiter.Outcome.IGNORE);
+                window.release();
+                failed.mark();
+                Logger.warning("Bot: %s. Error: %s", botId, e.getMessage());
+                retries.failed(delivery(channel, botId, type, payload, send, progress, index), e);
+            }
         }
-        return ret;
+
+        final int subscribers = count;
+        job.seal(() -> report(type, s, subscribers, success.get()));
+        progress.seal();
+    }
+
+    /**
+     * Loads the states of the next batch of subscribers, ahead of resolving their clients
+     */
+    private void prefetch(SubscriberIndex.Snapshot ids, int from) {
+        int to = Math.min(ids.size(), from + states.getBatch());
+        ArrayList<String> botIds = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            botIds.add(ids.get(i).toString());
+        }
+        states.prefetch(botIds);
+    }
+
+    private static String name(String type, String metric) {
+        return MetricRegistry.name(Broadcaster.class, metric, type);
     }
 
-    private ArrayList<String> getSubscriberIds(Channel channel) throws Exception {
-        Database database = new Database(Service.CONFIG.getPostgres());
-        return database.getSubscribers(channel.id);
+    private static RetryScheduler.Delivery delivery(Channel channel,
+                                                    String botId,
+                                                    String type,
+                                                    @Nullable String payload,
+                                                    RetryScheduler.Send send,
+                                                    Progress progress,
+                                                    int index) {
+        return new RetryScheduler.Delivery(botId,
+                channel.id,
+                type,
+                payload,
+                send,
+                delivered -> progress.done(index, delivered));
     }
 
-    private String getUserName(WireClient client, String userId) throws IOException {
-        Collection<User> users = client.getUsers(Collections.singletonList(userId));
-        return users.iterator().next().handle;
+    private SubscriberIndex.Snapshot getSubscriberIds(Channel channel) {
+        return subscribers.snapshot(channel.id);
     }
 
-    private Collection<Collection<String>> slice(List<String> ids, int batch) {
-        Collection<Collection<String>> ret = new ArrayList<>();
+    static Collection<List<String>> slice(List<String> ids, int batch) {
+        Collection<List<String>> ret = new ArrayList<>();
         for (int i = 0; i < ids.size(); i += batch) {
             int toIndex = i + batch;
             if (toIndex > ids.size()) {
@@ -292,4 +685,61 @@ class Broadcaster {
         }
         return ret;
     }
+
+    /**
+     * Counts down the subscribers of one fan-out as they are done for good
+     */
+    private static class Progress {
+        private final Outbox.Tracker tracker;
+        private final SubscriberIndex.Snapshot ids;
+        private final Ledger.Writer ledger;
+        private final Runnable onFinished;
+        private final AtomicInteger pending;
+
+        private Progress(@Nullable Outbox.Tracker tracker,
+                         SubscriberIndex.Snapshot ids,
+                         @Nullable Ledger.Writer ledger,
+                         @Nullable Runnable onFinished) {
+            this.tracker = tracker;
+            this.ids = ids;
+            this.ledger = ledger;
+            this.onFinished = onFinished;
+            this.pending = new AtomicInteger(ids.size() + 1); // one is held by the producer until seal()
+        }
+
+        void done(int index, boolean delivered) {
+            if (delivered && ledger != null)
+                ledger.append(ids.msb(index), ids.lsb(index));
+            if (tracker != null)
+                tracker.done(index, delivered);
+            finish();
+        }
+
+        /**
+         * The admin: reported to the tracker as delivered, kept out of the ledger
+         */
+        void skip(int index) {
+            if (tracker != null)
+                tracker.done(index, true);
+            finish();
+        }
+
+        void seal() {
+            finish();
+        }
+
+        private void finish() {
+            if (pending.decrementAndGet() != 0)
+                return;
+            if (ledger != null)
+                ledger.close();
+            if (onFinished != null)
+                onFinished.run();
+        }
+    }
+
+    enum Media {
+        reference,  // every subscriber gets the key of the admin's upload
+        upload      // the asset is downloaded and uploaded again for every subscriber
+    }
 }
@@ -1,27 +1,94 @@
 package com.wire.bots.channels;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.wire.bots.channels.model.Asset;
 import com.wire.bots.sdk.WireClient;
 import com.wire.bots.sdk.assets.Picture;
 import com.wire.bots.sdk.models.AssetKey;
 import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Pictures uploaded from a url. Kept in memory up to 64MB of images for a day, and in the Assets table for
+ * good, so a restart or another replica reuses the upload. A url that failed is not tried again for a minute.
+ */
 class Cache {
-    private static final ConcurrentHashMap<String, Picture> pictures = new ConcurrentHashMap<>();//<Url, Picture>
+    private static final com.google.common.cache.Cache<String, Picture> pictures = CacheBuilder.newBuilder()//<Url, Picture>
+            .maximumWeight(64 * 1024 * 1024)
+            .<String, Picture>weigher((url, picture) -> Math.max(1, picture.getSize()))
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+    private static final com.google.common.cache.Cache<String, Boolean> failures = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    private static Database database;
+    private static Meter hits = new Meter();
+    private static Meter misses = new Meter();
+
+    /**
+     * @return creates the Assets table on start
+     */
+    static Managed init(Database db, MetricRegistry metrics) {
+        database = db;
+        hits = metrics.meter(MetricRegistry.name(Cache.class, "pictures", "hits"));
+        misses = metrics.meter(MetricRegistry.name(Cache.class, "pictures", "misses"));
+        return new Managed() {
+            @Override
+            public void start() throws Exception {
+                db.runScript("db/assets.sql");
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
 
     @Nullable
     static Picture getPicture(WireClient client, String url) {
+        Picture picture = pictures.getIfPresent(url);
+        if (picture != null) {
+            hits.mark();
+            return picture;
+        }
+
+        if (failures.getIfPresent(url) != null)
+            return null;
 
-        return pictures.computeIfAbsent(url, k -> {
+        misses.mark();
+        try {
+            return pictures.get(url, () -> load(client, url));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Logger.warning("getPicture: url: %s, error: %s", url, e.getCause().getMessage());
+            failures.put(url, true);
+            return null;
+        }
+    }
+
+    private static Picture load(WireClient client, String url) throws Exception {
+        if (database != null) {
+            Asset asset = database.getAsset(url);
+            if (asset != null)
+                return picture(asset);
+        }
+
+        Picture picture = upload(client, url);
+        if (database != null) {
             try {
-                return upload(client, k);
+                database.insertAsset(asset(url, picture));
             } catch (Exception e) {
-                Logger.warning("getPicture: url: %s, error: %s", url, e.getMessage());
-                return null;
+                Logger.warning("getPicture: failed to persist url: %s, error: %s", url, e.getMessage());
             }
-        });
+        }
+        return picture;
     }
 
     private static Picture upload(WireClient client, String imgUrl) throws Exception {
@@ -31,6 +98,35 @@ class Cache {
 
         AssetKey assetKey = client.uploadAsset(preview);
         preview.setAssetKey(assetKey.key);
+        preview.setAssetToken(assetKey.token);
         return preview;
     }
+
+    private static Picture picture(Asset asset) {
+        Picture picture = new Picture();
+        picture.setPublic(true);
+        picture.setAssetKey(asset.key);
+        picture.setAssetToken(asset.token);
+        picture.setOtrKey(asset.otrKey);
+        picture.setSha256(asset.sha256);
+        picture.setMimeType(asset.mimeType);
+        picture.setSize((int) asset.size);
+        picture.setWidth(asset.width);
+        picture.setHeight(asset.height);
+        return picture;
+    }
+
+    private static Asset asset(String url, Picture picture) {
+        Asset asset = new Asset();
+        asset.url = url;
+        asset.key = picture.getAssetKey();
+        asset.token = picture.getAssetToken();
+        asset.otrKey = picture.getOtrKey();
+        asset.sha256 = picture.getSha256();
+        asset.mimeType = picture.getMimeType();
+        asset.size = picture.getSize();
+        asset.width = picture.getWidth();
+        asset.height = picture.getHeight();
+        return asset;
+    }
 }
@@ -0,0 +1,97 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.channels.model.Channel;
+
+import javax.annotation.Nullable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Channel metadata kept in memory. Entries are loaded lazily and dropped by {@link DatabaseListener}
+ * when Postgres notifies about a change, so the steady state lookups never touch the database.
+ */
+public class ChannelCache {
+    private final Database database;
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();//<ChannelId, Channel>
+    private final ConcurrentHashMap<String, String> bots = new ConcurrentHashMap<>();//<BotId, ChannelId>
+    private final AtomicLong generation = new AtomicLong();
+
+    public ChannelCache(Database database) {
+        this.database = database;
+    }
+
+    @Nullable
+    public Channel getChannel(String channelId) throws SQLException {
+        Channel channel = channels.get(channelId);
+        if (channel != null)
+            return channel;
+
+        long gen = generation.get();
+        channel = database.getChannel(channelId);
+        if (channel != null)
+            cache(channels, channelId, channel, gen);
+        return channel;
+    }
+
+    @Nullable
+    public Channel getSubscribedChannel(String botId) throws SQLException {
+        String channelId = bots.get(botId);
+        if (channelId != null) {
+            Channel channel = getChannel(channelId);
+            if (channel != null)
+                return channel;
+        }
+
+        long gen = generation.get();
+        Channel channel = database.getSubscribedChannel(botId);
+        if (channel != null) {
+            cache(bots, botId, channel.id, gen);
+            cache(channels, channel.id, channel, gen);
+        }
+        return channel;
+    }
+
+    /**
+     * Loads every channel, so that the first lookups do not touch the database either
+     *
+     * @return the channels
+     */
+    Collection<Channel> load() throws SQLException {
+        long gen = generation.get();
+        ArrayList<Channel> loaded = database.getChannels();
+        for (Channel channel : loaded) {
+            cache(channels, channel.id, channel, gen);
+        }
+        return loaded;
+    }
+
+    /**
+     * Caches what was read from the database, unless an invalidation ran since `gen` was taken. An invalidation
+     * bumps the generation before it removes, so one that races with the put is caught by the second check.
+     */
+    private <V> void cache(ConcurrentHashMap<String, V> map, String key, V value, long gen) {
+        if (gen != generation.get())
+            return;
+        if (map.putIfAbsent(key, value) == null && gen != generation.get())
+            map.remove(key, value);
+    }
+
+    void onChannelChanged(String channelId) {
+        generation.incrementAndGet();
+        channels.remove(channelId);
+    }
+
+    void onSubscriberChanged(String botId) {
+        generation.incrementAndGet();
+        bots.remove(botId);
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        channels.clear();
+        bots.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the WireClients of the recently used bots, so a send does not rebuild the bot's state from Redis
+ * and open its crypto box every time. At most `maxSize` clients are kept, each for `idle` after its last
+ * use. Bots that are purged or unsubscribed, here or on another node, are dropped right away. Bots without
+ * state are not cached.
+ * <p>
+ * Callers get a handle that counts the calls in progress. An evicted client is closed once its last call
+ * returns; a handle whose client is already closed gets a fresh one, so a caller holding on to it across
+ * an eviction never sends through a closed crypto box.
+ */
+class ClientCache extends ClientRepo implements Managed {
+    private final ClientRepo repo;
+    private final com.google.common.cache.Cache<String, Entry> clients;//<BotId, Entry>
+    private final ScheduledExecutorService scheduler;
+    private final Meter hits;
+    private final Meter misses;
+
+    ClientCache(ClientRepo repo, Config.Clients config, MetricRegistry metrics) {
+        super(null, null, null);
+        this.repo = repo;
+        this.clients = CacheBuilder.newBuilder()
+                .maximumSize(config.maxSize)
+                .expireAfterAccess(config.idle.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .removalListener(this::onRemoval)
+                .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "client-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hits = metrics.meter(MetricRegistry.name(ClientCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(ClientCache.class, "misses"));
+        metrics.register(MetricRegistry.name(ClientCache.class, "size"), (Gauge<Long>) clients::size);
+    }
+
+    @Override
+    public void start() {
+        // expired entries are otherwise only removed when the cache is written to
+        scheduler.scheduleWithFixedDelay(clients::cleanUp, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void stop() {
+        // clients still sending for the dispatcher, which stops after us, are closed when their call returns
+        scheduler.shutdownNow();
+        clients.invalidateAll();
+    }
+
+    @Override
+    @Nullable
+    public WireClient getWireClient(String botId) {
+        Entry entry = clients.getIfPresent(botId);
+        if (entry != null) {
+            hits.mark();
+            return entry.handle;
+        }
+
+        misses.mark();
+        WireClient client = repo.getWireClient(botId);
+        if (client == null)
+            return null;
+
+        entry = new Entry(botId, client);
+        Entry previous = clients.asMap().putIfAbsent(botId, entry);
+        if (previous != null) {
+            close(client);
+            return previous.handle;
+        }
+        return entry.handle;
+    }
+
+    @Override
+    public void purgeBot(String botId) {
+        invalidate(botId);
+        repo.purgeBot(botId);
+    }
+
+    boolean contains(String botId) {
+        return clients.getIfPresent(botId) != null;
+    }
+
+    void invalidate(String botId) {
+        clients.invalidate(botId);
+    }
+
+    private void onRemoval(RemovalNotification<String, Entry> notification) {
+        Entry entry = notification.getValue();
+        if (entry != null)
+            entry.evict();
+    }
+
+    private static void close(WireClient client) {
+        try {
+            client.close();
+        } catch (Exception e) {
+            Logger.warning("ClientCache: failed to close client: %s", e);
+        }
+    }
+
+    private class Entry implements InvocationHandler {
+        private final String botId;
+        private final WireClient client;
+        private final WireClient handle;
+        private int calls;
+        private boolean evicted;
+        private boolean closed;
+
+        private Entry(String botId, WireClient client) {
+            this.botId = botId;
+            this.client = client;
+            this.handle = (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                    new Class<?>[]{WireClient.class},
+                    this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class)
+                return method.getName().equals("equals") ? proxy == args[0] : method.invoke(this, args);
+
+            if (!enter()) {
+                WireClient fresh = getWireClient(botId);
+                if (fresh == null)
+                    throw new IllegalStateException("No state for bot: " + botId);
+                return call(fresh, method, args);
+            }
+            try {
+                return call(client, method, args);
+            } finally {
+                exit();
+            }
+        }
+
+        private synchronized boolean enter() {
+            if (closed)
+                return false;
+            calls++;
+            return true;
+        }
+
+        private void exit() {
+            synchronized (this) {
+                calls--;
+                if (!evicted || calls > 0 || closed)
+                    return;
+                closed = true;
+            }
+            close(client);
+        }
+
+        private void evict() {
+            synchronized (this) {
+                evicted = true;
+                if (calls > 0 || closed)
+                    return;
+                closed = true;
+            }
+            close(client);
+        }
+    }
+
+    private static Object call(WireClient client, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
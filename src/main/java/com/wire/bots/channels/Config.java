@@ -20,18 +20,49 @@ package com.wire.bots.channels;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.wire.bots.sdk.Configuration;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+
+import java.util.*;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Config extends Configuration {
     public String host;
+    public List<String> workers = new ArrayList<>();
     public int batch = 100;
     public int threads = 8;
+    public int window = 256;
+    public int queue = 4096;
+    public Duration queueTimeout = Duration.seconds(30);
+    public Dispatcher.Mode delivery = Dispatcher.Mode.platform;
+    public int concurrency = 256;
+    public Duration checkpoint = Duration.seconds(1);
+    public Duration reactions = Duration.minutes(1);
+    public Broadcaster.Media media = Broadcaster.Media.reference;
     public DB postgres = new DB();
+    public Pool pool = new Pool();
+    public Forward forward = new Forward();
+    public Limiter limiter = new Limiter();
+    public Retry retry = new Retry();
+    public Spool spool = new Spool();
+    public Clients clients = new Clients();
+    public States states = new States();
+    public PreKeys preKeys = new PreKeys();
+    public Ingest ingest = new Ingest();
+    public Ledger ledger = new Ledger();
 
     public String getHost() {
         return host;
     }
 
+    /**
+     * @return nodes the batch forwarding is spread over. Defaults to `host`
+     */
+    public List<String> getWorkers() {
+        return workers.isEmpty() ? Collections.singletonList(host) : workers;
+    }
+
     public int getBatch() {
         return batch;
     }
@@ -40,7 +71,131 @@ public class Config extends Configuration {
         return threads;
     }
 
+    public int getWindow() {
+        return window;
+    }
+
+    public int getQueue() {
+        return queue;
+    }
+
+    public Duration getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public Dispatcher.Mode getDelivery() {
+        return delivery;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return most sends the dispatcher can run at once: `threads` on platform threads, `concurrency` on virtual
+     */
+    public int getMaxInFlight() {
+        return delivery == Dispatcher.Mode.platform ? threads : concurrency;
+    }
+
+    public Duration getCheckpoint() {
+        return checkpoint;
+    }
+
+    public Broadcaster.Media getMedia() {
+        return media;
+    }
+
     public DB getPostgres() {
         return postgres;
     }
+
+    public String getPostgresUrl() {
+        return String.format("jdbc:postgresql://%s:%d/%s", postgres.host, postgres.port, postgres.database);
+    }
+
+    public DataSourceFactory getDataSourceFactory() {
+        DataSourceFactory factory = new DataSourceFactory();
+        factory.setDriverClass("org.postgresql.Driver");
+        factory.setUrl(getPostgresUrl());
+        factory.setUser(postgres.user);
+        factory.setPassword(postgres.password);
+        factory.setInitialSize(pool.minSize);
+        factory.setMinSize(pool.minSize);
+        factory.setMaxSize(pool.maxSize);
+        factory.setMaxWaitForConnection(pool.maxWait);
+
+        // Let the driver keep server side prepared statements per pooled connection
+        Map<String, String> properties = new HashMap<>();
+        properties.put("prepareThreshold", "1");
+        properties.put("preparedStatementCacheQueries", Integer.toString(pool.statements));
+        factory.setProperties(properties);
+        return factory;
+    }
+
+    public static class Pool {
+        public int minSize = 2;
+        public int maxSize = 16;
+        public Duration maxWait = Duration.seconds(5);
+        public int statements = 256;
+    }
+
+    public static class Forward {
+        public boolean enabled = false; // text broadcasts are spread over the workers instead of sent locally
+        public int maxConnections = 64;
+        public int maxConnectionsPerRoute = 64;
+        public Duration connectTimeout = Duration.seconds(5);
+        public Duration timeout = Duration.seconds(60);
+        public boolean compression = false; // the receiving connector must inflate gzip request bodies
+        public Duration healthInterval = Duration.seconds(10);
+    }
+
+    public static class Limiter {
+        public int min = 4;
+        public int max = 1024;
+        public int initial = 16;
+        public double backoff = 0.75;
+        public double tolerance = 2.0; // latency above tolerance * average counts as a spike
+        public Duration timeout = Duration.seconds(30);
+    }
+
+    public static class Ledger {
+        public String directory = System.getProperty("java.io.tmpdir") + "/channel-ledger";
+        public Duration ttl = Duration.days(7);     // posts older than this can no longer be revoked or edited
+        public int threads = 2;                     // run the revokes and edits that waited for a post
+    }
+
+    public static class Ingest {
+        public int stripes = 64;    // inbound events of one bot are handled in order on one stripe
+        public int queue = 1000;    // events waiting per stripe, more are answered with 503
+    }
+
+    public static class PreKeys {
+        public int threads = 2;                         // joins generating pre-keys at the same time
+        public int queue = 256;                         // joins waiting for keys, more are answered with 503
+        public Duration timeout = Duration.seconds(30);
+    }
+
+    public static class States {
+        public int batch = 500; // bot states loaded from Redis with one MGET
+    }
+
+    public static class Clients {
+        public int maxSize = 10_000;
+        public Duration idle = Duration.minutes(10);
+    }
+
+    public static class Spool {
+        public String directory = System.getProperty("java.io.tmpdir") + "/channel-spool";
+        public Size threshold = Size.megabytes(1); // smaller media stays on the heap
+        public int concurrency = 8;                // spooled assets read into memory at the same time
+    }
+
+    public static class Retry {
+        public int attempts = 5;
+        public Duration delay = Duration.seconds(1);
+        public Duration maxDelay = Duration.minutes(5);
+        public int threads = 4;
+        public Duration claim = Duration.hours(1); // a replay not settled by then is handed to the next one
+    }
 }
@@ -1,101 +1,403 @@
 package com.wire.bots.channels;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.io.Resources;
+import com.wire.bots.channels.model.Asset;
+import com.wire.bots.channels.model.Broadcast;
+import com.wire.bots.channels.model.BroadcastSlice;
 import com.wire.bots.channels.model.Channel;
-import com.wire.bots.sdk.Configuration;
+import com.wire.bots.channels.model.DeadLetter;
 
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class Database {
-    private final Configuration.DB conf;
+    private static final int FETCH_SIZE = 1000;
 
-    public Database(Configuration.DB postgres) {
-        this.conf = postgres;
+    private final DataSource dataSource;
+    private final MetricRegistry metrics;
+    private final Timer wait;
+
+    public Database(DataSource dataSource, MetricRegistry metrics) {
+        this.dataSource = dataSource;
+        this.metrics = metrics;
+        this.wait = metrics.timer(MetricRegistry.name(Database.class, "connection", "wait"));
     }
 
     public boolean insertSubscriber(String botId, String channelId) throws Exception {
-        try (Connection c = newConnection()) {
-            PreparedStatement stmt = c.prepareStatement("INSERT INTO Subscribers (botId, channel) VALUES (?, ?) ON CONFLICT (botId) DO NOTHING");
+        try (Timer.Context ignored = time("insertSubscriber");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("INSERT INTO Subscribers (botId, channel) VALUES (?, ?) ON CONFLICT (botId) DO NOTHING")) {
             stmt.setObject(1, UUID.fromString(botId));
             stmt.setString(2, channelId);
             return stmt.executeUpdate() == 1;
         }
     }
 
-    ArrayList<String> getSubscribers(String channelId) throws Exception {
-        ArrayList<String> ret = new ArrayList<>();
-        try (Connection c = newConnection()) {
-            PreparedStatement stmt = c.prepareStatement("SELECT botId FROM Subscribers WHERE channel = ?");
-            stmt.setString(1, channelId);
-            ResultSet resultSet = stmt.executeQuery();
-            while (resultSet.next()) {
-                ret.add(resultSet.getString("botId"));
+    /**
+     * Streams the subscribers of the channel through a cursor
+     *
+     * @param consumer receives botIds as the rows arrive
+     */
+    void getSubscribers(String channelId, Consumer<String> consumer) throws SQLException {
+        try (Timer.Context ignored = time("getSubscribers");
+             Connection c = newConnection()) {
+            c.setAutoCommit(false); // Postgres uses a cursor only inside a transaction
+            try (PreparedStatement stmt = c.prepareStatement("SELECT botId FROM Subscribers WHERE channel = ?")) {
+                stmt.setFetchSize(FETCH_SIZE);
+                stmt.setString(1, channelId);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(resultSet.getString("botId"));
+                    }
+                }
+            } finally {
+                c.setAutoCommit(true);
             }
         }
+    }
+
+    ArrayList<String> getSubscribers(String channelId) throws SQLException {
+        ArrayList<String> ret = new ArrayList<>();
+        getSubscribers(channelId, ret::add);
         return ret;
     }
 
+    /**
+     * Streams the whole Subscribers table through a cursor
+     *
+     * @param consumer receives (botId, channelId)
+     */
+    void loadSubscribers(BiConsumer<UUID, String> consumer) throws SQLException {
+        try (Timer.Context ignored = time("loadSubscribers");
+             Connection c = newConnection()) {
+            c.setAutoCommit(false); // Postgres uses a cursor only inside a transaction
+            try (PreparedStatement stmt = c.prepareStatement("SELECT botId, channel FROM Subscribers")) {
+                stmt.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept((UUID) resultSet.getObject("botId"), resultSet.getString("channel"));
+                    }
+                }
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
     Channel getSubscribedChannel(String botId) throws SQLException {
-        try (Connection c = newConnection()) {
-            PreparedStatement stmt = c.prepareStatement(
-                    "SELECT c.id, c.name, c.token, c.admin, c.whitelist, c.introText, c.introPicture " +
-                            "FROM Subscribers s, Channels c " +
-                            "WHERE s.botId = ? AND s.channel = c.id");
+        try (Timer.Context ignored = time("getSubscribedChannel");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement(
+                     "SELECT c.id, c.name, c.token, c.admin, c.whitelist, c.introText, c.introPicture " +
+                             "FROM Subscribers s, Channels c " +
+                             "WHERE s.botId = ? AND s.channel = c.id")) {
 
             stmt.setObject(1, UUID.fromString(botId));
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                Channel channel = new Channel();
-                channel.id = resultSet.getString("id");
-                channel.name = resultSet.getString("name");
-                channel.token = resultSet.getString("token");
-                channel.admin = resultSet.getString("admin");
-                channel.whitelist = resultSet.getString("whitelist");
-                channel.introText = resultSet.getString("introText");
-                channel.introPic = resultSet.getString("introPicture");
-
-                return channel;
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (resultSet.next()) {
+                    return channel(resultSet);
+                }
             }
         }
         return null;
     }
 
     public Channel getChannel(String channelId) throws SQLException {
-        try (Connection c = newConnection()) {
-            PreparedStatement stmt = c.prepareStatement(
-                    "SELECT id, name, token, admin, whitelist, introText, introPicture " +
-                            "FROM Channels " +
-                            "WHERE id = ?");
+        try (Timer.Context ignored = time("getChannel");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement(
+                     "SELECT id, name, token, admin, whitelist, introText, introPicture " +
+                             "FROM Channels " +
+                             "WHERE id = ?")) {
 
             stmt.setString(1, channelId);
-            ResultSet resultSet = stmt.executeQuery();
-            if (resultSet.next()) {
-                Channel channel = new Channel();
-                channel.id = resultSet.getString("id");
-                channel.name = resultSet.getString("name");
-                channel.token = resultSet.getString("token");
-                channel.admin = resultSet.getString("admin");
-                channel.whitelist = resultSet.getString("whitelist");
-                channel.introText = resultSet.getString("introText");
-                channel.introPic = resultSet.getString("introPicture");
-
-                return channel;
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (resultSet.next()) {
+                    return channel(resultSet);
+                }
             }
         }
         return null;
     }
 
+    ArrayList<Channel> getChannels() throws SQLException {
+        ArrayList<Channel> ret = new ArrayList<>();
+        try (Timer.Context ignored = time("getChannels");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement(
+                     "SELECT id, name, token, admin, whitelist, introText, introPicture " +
+                             "FROM Channels");
+             ResultSet resultSet = stmt.executeQuery()) {
+            while (resultSet.next()) {
+                ret.add(channel(resultSet));
+            }
+        }
+        return ret;
+    }
+
     public boolean unsubscribe(String botId) throws SQLException {
-        try (Connection c = newConnection()) {
-            PreparedStatement stmt = c.prepareStatement("DELETE FROM Subscribers WHERE botId = ?");
+        try (Timer.Context ignored = time("unsubscribe");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("DELETE FROM Subscribers WHERE botId = ?")) {
             stmt.setObject(1, UUID.fromString(botId));
             return stmt.executeUpdate() == 1;
         }
     }
 
+    /**
+     * Executes the sql script from the classpath, e.g. db/outbox.sql
+     */
+    void runScript(String resource) throws SQLException, IOException {
+        String sql = Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8);
+        try (Timer.Context ignored = time("runScript");
+             Connection c = newConnection();
+             Statement stmt = c.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    void insertBroadcast(Broadcast broadcast) throws SQLException {
+        try (Timer.Context ignored = time("insertBroadcast");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("INSERT INTO Broadcasts (id, channel, type, payload, status) VALUES (?, ?, ?, ?, ?)")) {
+            stmt.setObject(1, broadcast.id);
+            stmt.setString(2, broadcast.channel);
+            stmt.setString(3, broadcast.type);
+            stmt.setString(4, broadcast.payload);
+            stmt.setString(5, broadcast.status);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes over up to `limit` broadcasts in the given status that nobody has touched for `seconds`
+     */
+    ArrayList<Broadcast> claimBroadcasts(String status, int seconds, int limit) throws SQLException {
+        ArrayList<Broadcast> ret = new ArrayList<>();
+        try (Timer.Context ignored = time("claimBroadcasts");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("UPDATE Broadcasts SET updated = now() " +
+                     "WHERE id IN (SELECT id FROM Broadcasts WHERE status = ? AND updated < now() - make_interval(secs => ?) " +
+                     "ORDER BY updated LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                     "RETURNING id, channel, type, payload, cursor, status")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, seconds);
+            stmt.setInt(3, limit);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    Broadcast broadcast = new Broadcast();
+                    broadcast.id = (UUID) resultSet.getObject("id");
+                    broadcast.channel = resultSet.getString("channel");
+                    broadcast.type = resultSet.getString("type");
+                    broadcast.payload = resultSet.getString("payload");
+                    broadcast.cursor = (UUID) resultSet.getObject("cursor");
+                    broadcast.status = resultSet.getString("status");
+                    ret.add(broadcast);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the finished slices and moves the cursors of the broadcasts, all in one transaction
+     */
+    void checkpoint(Collection<BroadcastSlice> slices, Collection<Broadcast> broadcasts) throws SQLException {
+        try (Timer.Context ignored = time("checkpoint");
+             Connection c = newConnection()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement insert = c.prepareStatement("INSERT INTO BroadcastSlices (broadcast, first, last, delivered, failed) " +
+                    "VALUES (?, ?, ?, ?, ?) ON CONFLICT (broadcast, first) DO UPDATE SET last = EXCLUDED.last, " +
+                    "delivered = EXCLUDED.delivered, failed = EXCLUDED.failed");
+                 PreparedStatement update = c.prepareStatement("UPDATE Broadcasts SET cursor = ?, status = ?, updated = now() WHERE id = ?")) {
+                for (BroadcastSlice slice : slices) {
+                    insert.setObject(1, slice.broadcast);
+                    insert.setObject(2, slice.first);
+                    insert.setObject(3, slice.last);
+                    insert.setInt(4, slice.delivered);
+                    insert.setInt(5, slice.failed);
+                    insert.addBatch();
+                }
+                for (Broadcast broadcast : broadcasts) {
+                    update.setObject(1, broadcast.cursor);
+                    update.setString(2, broadcast.status);
+                    update.setObject(3, broadcast.id);
+                    update.addBatch();
+                }
+                insert.executeBatch();
+                update.executeBatch();
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Removes finished broadcasts (and their slices) older than the given number of days
+     */
+    int deleteBroadcasts(String status, int days) throws SQLException {
+        try (Timer.Context ignored = time("deleteBroadcasts");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("DELETE FROM Broadcasts WHERE status = ? AND updated < now() - make_interval(days => ?)")) {
+            stmt.setString(1, status);
+            stmt.setInt(2, days);
+            return stmt.executeUpdate();
+        }
+    }
+
+    void insertDeadLetters(Collection<DeadLetter> letters) throws SQLException {
+        try (Timer.Context ignored = time("insertDeadLetters");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("INSERT INTO DeadLetters (bot, channel, type, payload, error) VALUES (?, ?, ?, ?, ?)")) {
+            for (DeadLetter letter : letters) {
+                stmt.setObject(1, letter.bot);
+                stmt.setString(2, letter.channel);
+                stmt.setString(3, letter.type);
+                stmt.setString(4, letter.payload);
+                stmt.setString(5, letter.error);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Claims the oldest dead letters that are not being replayed, or whose replay was claimed more than
+     * `seconds` ago and never settled. Concurrent callers get disjoint sets.
+     */
+    ArrayList<DeadLetter> claimDeadLetters(int seconds, int limit) throws SQLException {
+        ArrayList<DeadLetter> ret = new ArrayList<>();
+        try (Timer.Context ignored = time("claimDeadLetters");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("UPDATE DeadLetters SET claimed = now() WHERE id IN " +
+                     "(SELECT id FROM DeadLetters WHERE claimed IS NULL OR claimed < now() - make_interval(secs => ?) " +
+                     "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                     "RETURNING id, bot, channel, type, payload, error")) {
+            stmt.setInt(1, seconds);
+            stmt.setInt(2, limit);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    DeadLetter letter = new DeadLetter();
+                    letter.id = resultSet.getLong("id");
+                    letter.bot = (UUID) resultSet.getObject("bot");
+                    letter.channel = resultSet.getString("channel");
+                    letter.type = resultSet.getString("type");
+                    letter.payload = resultSet.getString("payload");
+                    letter.error = resultSet.getString("error");
+                    ret.add(letter);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Hands replayed letters that failed again back for the next replay, with their latest error
+     */
+    void releaseDeadLetters(Collection<DeadLetter> letters) throws SQLException {
+        try (Timer.Context ignored = time("releaseDeadLetters");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("UPDATE DeadLetters SET claimed = NULL, error = ? WHERE id = ?")) {
+            for (DeadLetter letter : letters) {
+                stmt.setString(1, letter.error);
+                stmt.setLong(2, letter.id);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    void deleteDeadLetters(Collection<Long> ids) throws SQLException {
+        try (Timer.Context ignored = time("deleteDeadLetters");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("DELETE FROM DeadLetters WHERE id = ?")) {
+            for (long id : ids) {
+                stmt.setLong(1, id);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Nullable
+    Asset getAsset(String url) throws SQLException {
+        try (Timer.Context ignored = time("getAsset");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("SELECT * FROM Assets WHERE url = ?")) {
+            stmt.setString(1, url);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                if (!resultSet.next())
+                    return null;
+
+                Asset asset = new Asset();
+                asset.url = resultSet.getString("url");
+                asset.key = resultSet.getString("key");
+                asset.token = resultSet.getString("token");
+                asset.otrKey = resultSet.getBytes("otrKey");
+                asset.sha256 = resultSet.getBytes("sha256");
+                asset.mimeType = resultSet.getString("mimeType");
+                asset.size = resultSet.getLong("size");
+                asset.width = resultSet.getInt("width");
+                asset.height = resultSet.getInt("height");
+                return asset;
+            }
+        }
+    }
+
+    /**
+     * Keeps the first upload of the url, another replica may have been faster
+     */
+    void insertAsset(Asset asset) throws SQLException {
+        try (Timer.Context ignored = time("insertAsset");
+             Connection c = newConnection();
+             PreparedStatement stmt = c.prepareStatement("INSERT INTO Assets (url, key, token, otrKey, sha256, mimeType, size, width, height) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (url) DO NOTHING")) {
+            stmt.setString(1, asset.url);
+            stmt.setString(2, asset.key);
+            stmt.setString(3, asset.token);
+            stmt.setBytes(4, asset.otrKey);
+            stmt.setBytes(5, asset.sha256);
+            stmt.setString(6, asset.mimeType);
+            stmt.setLong(7, asset.size);
+            stmt.setInt(8, asset.width);
+            stmt.setInt(9, asset.height);
+            stmt.executeUpdate();
+        }
+    }
+
+    private Channel channel(ResultSet resultSet) throws SQLException {
+        Channel channel = new Channel();
+        channel.id = resultSet.getString("id");
+        channel.name = resultSet.getString("name");
+        channel.token = resultSet.getString("token");
+        channel.admin = resultSet.getString("admin");
+        channel.whitelist = resultSet.getString("whitelist");
+        channel.introText = resultSet.getString("introText");
+        channel.introPic = resultSet.getString("introPicture");
+        return channel;
+    }
+
+    private Timer.Context time(String method) {
+        return metrics.timer(MetricRegistry.name(Database.class, method)).time();
+    }
+
     private Connection newConnection() throws SQLException {
-        String url = String.format("jdbc:postgresql://%s:%d/%s", conf.host, conf.port, conf.database);
-        return DriverManager.getConnection(url, conf.user, conf.password);
+        try (Timer.Context ignored = wait.time()) {
+            return dataSource.getConnection();
+        }
     }
 }
@@ -0,0 +1,160 @@
+package com.wire.bots.channels;
+
+import com.google.common.io.Resources;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Listens on a dedicated connection for the notifications published by the triggers in db/notify.sql
+ * and keeps the local caches in sync. The first connect happens in {@link #start()} so that the
+ * subscriber index is loaded before we accept any traffic.
+ */
+class DatabaseListener implements Managed, Runnable {
+    private static final long POLL_INTERVAL = 500;//ms
+    private static final long RECONNECT_INTERVAL = 5;//sec
+
+    private final Config config;
+    private final ChannelCache channels;
+    private final SubscriberIndex subscribers;
+    private final Thread thread = new Thread(this, "db-listener");
+    private volatile boolean running;
+    private volatile Consumer<String> onUnsubscribe;
+    private Connection connection;
+
+    DatabaseListener(Config config, ChannelCache channels, SubscriberIndex subscribers) {
+        this.config = config;
+        this.channels = channels;
+        this.subscribers = subscribers;
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @param onUnsubscribe receives the bots removed from the Subscribers table, by any node
+     */
+    void onUnsubscribe(Consumer<String> onUnsubscribe) {
+        this.onUnsubscribe = onUnsubscribe;
+    }
+
+    @Override
+    public void start() throws Exception {
+        connection = connect();
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(RECONNECT_INTERVAL));
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (connection == null)
+                    connection = connect();
+                poll(connection);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                Logger.warning("DatabaseListener: %s", e);
+                close();
+                try {
+                    TimeUnit.SECONDS.sleep(RECONNECT_INTERVAL);
+                } catch (InterruptedException ignored) {
+                    break;
+                }
+            }
+        }
+        close();
+    }
+
+    private Connection connect() throws Exception {
+        Connection c = DriverManager.getConnection(config.getPostgresUrl(), config.postgres.user, config.postgres.password);
+        try {
+            String triggers = Resources.toString(Resources.getResource("db/notify.sql"), StandardCharsets.UTF_8);
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute(triggers);
+                stmt.execute("LISTEN channels_changed");
+                stmt.execute("LISTEN subscribers_changed");
+            }
+
+            // Anything could have changed while we were not listening
+            channels.clear();
+            subscribers.load();
+            return c;
+        } catch (Exception e) {
+            c.close();
+            throw e;
+        }
+    }
+
+    private void poll(Connection c) throws Exception {
+        PGConnection pg = c.unwrap(PGConnection.class);
+        while (running) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("SELECT 1"); // the driver picks up notifications on a round trip only
+            }
+            PGNotification[] notifications = pg.getNotifications();
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    onNotification(notification.getName(), notification.getParameter());
+                }
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    private void onNotification(String name, String payload) {
+        switch (name) {
+            case "channels_changed":
+                channels.onChannelChanged(payload);
+                break;
+            case "subscribers_changed": {
+                String[] split = payload.split(",");// <op>,<botId>,<channelId>
+                String botId = split[1];
+                String channelId = split[2];
+                channels.onSubscriberChanged(botId);
+                switch (split[0]) {
+                    case "INSERT":
+                        subscribers.add(channelId, botId);
+                        break;
+                    case "UPDATE":
+                        subscribers.remove(botId);
+                        subscribers.add(channelId, botId);
+                        break;
+                    case "DELETE":
+                        subscribers.remove(channelId, botId);
+                        Consumer<String> handler = onUnsubscribe;
+                        if (handler != null)
+                            handler.accept(botId);
+                        break;
+                }
+                break;
+            }
+        }
+    }
+
+    private void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+            connection = null;
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,177 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one place all broadcasts are delivered through. Two modes, selected by `delivery` in the config:
+ * <p>
+ * platform: `threads` workers with a bounded queue of `queue` tasks. When the queue is full the producer
+ * blocks for up to `queueTimeout` and then gets {@link RejectedExecutionException}.
+ * <p>
+ * virtual: every send runs on its own virtual thread, at most `concurrency` at the time. When all permits
+ * are taken the producer blocks for up to `queueTimeout` and then gets {@link RejectedExecutionException}.
+ */
+class Dispatcher implements Managed {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Duration timeout;
+    private final int concurrency;
+
+    Dispatcher(Config config, MetricRegistry metrics) {
+        timeout = config.queueTimeout;
+        concurrency = config.concurrency;
+        switch (config.delivery) {
+            case virtual:
+                executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("delivery-", 0).factory());
+                permits = new Semaphore(config.concurrency);
+                break;
+            default:
+                executor = newPlatformExecutor(config.threads, config.queue, timeout);
+                permits = null;
+                break;
+        }
+
+        metrics.register(MetricRegistry.name(Dispatcher.class, "queue"), (Gauge<Integer>) this::getQueueDepth);
+        metrics.register(MetricRegistry.name(Dispatcher.class, "active"), (Gauge<Integer>) this::getActive);
+    }
+
+    private static ThreadPoolExecutor newPlatformExecutor(int threads, int queue, Duration timeout) {
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue),
+                r -> new Thread(r, "dispatcher-" + counter.incrementAndGet()),
+                (r, pool) -> {
+                    try {
+                        if (pool.isShutdown() || !pool.getQueue().offer(r, timeout.getQuantity(), timeout.getUnit()))
+                            throw new RejectedExecutionException("Dispatcher queue is full");
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                });
+    }
+
+    @Override
+    public void start() {
+        if (executor instanceof ThreadPoolExecutor)
+            ((ThreadPoolExecutor) executor).prestartAllCoreThreads();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            Logger.warning("Dispatcher: %d tasks dropped on shutdown", executor.shutdownNow().size());
+        }
+    }
+
+    /**
+     * @return sends waiting for a thread, or for a permit in virtual mode
+     */
+    int getQueueDepth() {
+        if (permits != null)
+            return permits.getQueueLength();
+        return ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+
+    /**
+     * @return sends in progress
+     */
+    int getActive() {
+        if (permits != null)
+            return concurrency - permits.availablePermits();
+        return ((ThreadPoolExecutor) executor).getActiveCount();
+    }
+
+    Job newJob() {
+        return new Job();
+    }
+
+    void execute(Runnable task) {
+        if (permits == null) {
+            executor.execute(task);
+            return;
+        }
+
+        try {
+            if (!permits.tryAcquire(timeout.getQuantity(), timeout.getUnit()))
+                throw new RejectedExecutionException("Too many sends in flight");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    enum Mode {
+        platform,
+        virtual
+    }
+
+    /**
+     * Tracks the tasks of one broadcast so that we know when the broadcast is done, without waiting for it
+     */
+    class Job {
+        private final AtomicInteger pending = new AtomicInteger(1); // held by the producer until seal()
+        private volatile Runnable onComplete;
+
+        void execute(Runnable task) {
+            pending.incrementAndGet();
+            try {
+                Dispatcher.this.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        done();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                done();
+                throw e;
+            }
+        }
+
+        /**
+         * Counts an asynchronous task, running outside the dispatcher, towards this job
+         */
+        void track(CompletableFuture<?> future) {
+            pending.incrementAndGet();
+            future.whenComplete((r, e) -> done());
+        }
+
+        /**
+         * No more tasks will be added to this job
+         *
+         * @param onComplete runs once all the tasks have finished
+         */
+        void seal(Runnable onComplete) {
+            this.onComplete = onComplete;
+            done();
+        }
+
+        private void done() {
+            if (pending.decrementAndGet() == 0 && onComplete != null)
+                onComplete.run();
+        }
+    }
+}
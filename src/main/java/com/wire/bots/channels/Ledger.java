@@ -0,0 +1,257 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Which subscribers got a post. Posts are sent to every subscriber under the admin's message id, so this is all
+ * it takes to revoke or edit them later, on the bots that actually have the post and only those. One file per
+ * post, named after its message id, holding the bot ids as packed 16 byte UUIDs, appended a page at the time
+ * while the fan-out progresses. A ledger is only complete once its writers are closed, so revokes and edits
+ * wait for that, see {@link #whenClosed(String, Runnable)}. Files older than `ttl` are deleted. The files are
+ * local to the node that sent the post; another replica handling its revoke or edit finds no ledger and falls
+ * back to the channel's current subscribers.
+ * <p>
+ * The outbox checkpoints a post's progress only after the open pages are written, see {@link #flush()},
+ * so a post resumed after a crash never skips bots that are missing from its ledger.
+ */
+class Ledger implements Managed {
+    private static final int PAGE = 4096;   // 256 bots
+    private static final String SUFFIX = ".ledger";
+
+    private final Path directory;
+    private final long ttl;
+    private final ConcurrentHashMap<String, Pending> writing = new ConcurrentHashMap<>();//<MessageId, Pending>
+    private final Set<Writer> open = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ledger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService actions;
+
+    Ledger(Config.Ledger config) {
+        this.directory = Paths.get(config.directory);
+        this.ttl = config.ttl.toMilliseconds();
+        this.actions = Executors.newFixedThreadPool(config.threads, r -> {
+            Thread thread = new Thread(r, "ledger-action");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        scheduler.scheduleWithFixedDelay(this::expire, 0, 1, TimeUnit.HOURS);
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+        actions.shutdownNow();
+    }
+
+    /**
+     * Starts the ledger of a post. A post that is sent again, e.g. resumed after a crash, appends to it
+     */
+    Writer create(String messageId) throws IOException {
+        Path file = file(messageId);
+        writing.compute(messageId, (k, pending) -> {
+            if (pending == null)
+                pending = new Pending();
+            pending.writers++;
+            return pending;
+        });
+        try {
+            Writer writer = new Writer(messageId, FileChannel.open(file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND));
+            open.add(writer);
+            return writer;
+        } catch (IOException e) {
+            release(messageId);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds one bot to the ledger of a post, e.g. on a replayed dead letter
+     */
+    void append(String messageId, UUID botId) {
+        try (Writer writer = create(messageId)) {
+            writer.append(botId.getMostSignificantBits(), botId.getLeastSignificantBits());
+        } catch (IOException e) {
+            Logger.warning("Ledger: failed to append to %s: %s", messageId, e);
+        }
+    }
+
+    /**
+     * Writes the partial pages of the open writers, so every bot appended so far is in the files
+     */
+    void flush() {
+        for (Writer writer : open) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Runs `action` once no writer of the ledger is open anymore: right away, or on one of `threads` after
+     * the last writer closed. The action is a whole fan-out, so it does not hold up the thread that closed it.
+     */
+    void whenClosed(String messageId, Runnable action) {
+        AtomicBoolean deferred = new AtomicBoolean();
+        writing.computeIfPresent(messageId, (k, pending) -> {
+            pending.waiting.add(action);
+            deferred.set(true);
+            return pending;
+        });
+        if (!deferred.get())
+            action.run();
+    }
+
+    /**
+     * @return the bots that got the post, null if there is no ledger for it
+     */
+    @Nullable
+    SubscriberIndex.Snapshot read(String messageId) throws IOException {
+        Path file = file(messageId);
+        if (!Files.exists(file))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] ids = new long[(int) (channel.size() / 8) & ~1];
+            ByteBuffer page = ByteBuffer.allocate(PAGE);
+            int i = 0;
+            while (i < ids.length && channel.read(page) >= 0) {
+                page.flip();
+                while (page.remaining() >= 16 && i < ids.length) {
+                    ids[i++] = page.getLong();
+                    ids[i++] = page.getLong();
+                }
+                page.compact();
+            }
+            return SubscriberIndex.Snapshot.of(ids);
+        }
+    }
+
+    /**
+     * An edit replaces the post with one under a new message id
+     */
+    void rename(String messageId, String newId) throws IOException {
+        Files.move(file(messageId), file(newId), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    void delete(String messageId) {
+        try {
+            Files.deleteIfExists(file(messageId));
+        } catch (IOException e) {
+            Logger.warning("Ledger: failed to delete %s: %s", messageId, e);
+        }
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - ttl;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < cutoff)
+                    Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            Logger.warning("Ledger: expire: %s", e);
+        }
+    }
+
+    private void release(String messageId) {
+        ArrayList<Runnable> ready = new ArrayList<>();
+        writing.computeIfPresent(messageId, (k, pending) -> {
+            if (--pending.writers > 0)
+                return pending;
+            ready.addAll(pending.waiting);
+            return null;
+        });
+        for (Runnable action : ready) {
+            try {
+                actions.execute(action);
+            } catch (RejectedExecutionException e) {
+                Logger.warning("Ledger: stopped, dropped an action on %s", messageId);
+            }
+        }
+    }
+
+    private Path file(String messageId) {
+        // message ids are UUIDs, anything else must not escape the directory
+        return directory.resolve(UUID.fromString(messageId) + SUFFIX);
+    }
+
+    class Writer implements AutoCloseable {
+        private final String messageId;
+        private final FileChannel channel;
+        private final ByteBuffer page = ByteBuffer.allocate(PAGE);
+        private boolean closed;
+
+        private Writer(String messageId, FileChannel channel) {
+            this.messageId = messageId;
+            this.channel = channel;
+        }
+
+        synchronized void append(long msb, long lsb) {
+            page.putLong(msb).putLong(lsb);
+            if (!page.hasRemaining())
+                flush();
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed)
+                    return;
+                flush();
+                closed = true;
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Logger.warning("Ledger: close: %s", e);
+                }
+            }
+            open.remove(this);
+            release(messageId);
+        }
+
+        private synchronized void flush() {
+            if (closed || page.position() == 0)
+                return;
+            page.flip();
+            try {
+                while (page.hasRemaining()) {
+                    channel.write(page);
+                }
+            } catch (IOException e) {
+                Logger.warning("Ledger: write: %s", e);
+            }
+            page.clear();
+        }
+    }
+
+    private static class Pending {
+        private final ArrayList<Runnable> waiting = new ArrayList<>();
+        private int writers;
+    }
+}
@@ -0,0 +1,183 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps media being broadcast in `upload` mode on disk instead of the heap. Assets of at least `threshold`
+ * bytes are written to a temp file right after the download and read back for each send, by at most
+ * `concurrency` senders at the time, so the heap holds that many copies at most, however many broadcasts
+ * and retries are pending. Smaller assets stay in memory. The files go to a directory of this process's own,
+ * created under `directory` on start and removed on stop, so other instances on the host keep theirs.
+ * The process holds a file lock in its directory while it runs; on start, directories whose lock nobody
+ * holds any more were left behind by a crashed instance and are deleted.
+ */
+class MediaSpool implements Managed {
+    private static final String PREFIX = "spool";
+    private static final String LOCK = ".lock";
+    private static final long GRACE = TimeUnit.MINUTES.toMillis(1); // a new directory may not be locked yet
+
+    private final Path parent;
+    private final long threshold;
+    private final Semaphore readers;
+    private volatile Path directory;
+    private volatile FileChannel lock;
+
+    MediaSpool(Config.Spool config) {
+        this.parent = Paths.get(config.directory);
+        this.threshold = config.threshold.toBytes();
+        this.readers = new Semaphore(config.concurrency);
+    }
+
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(parent);
+        directory = Files.createTempDirectory(parent, PREFIX);
+        lock = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock.lock();
+        sweep();
+    }
+
+    @Override
+    public void stop() {
+        if (directory == null)
+            return;
+        try {
+            lock.close();
+        } catch (IOException e) {
+            Logger.warning("MediaSpool: failed to unlock %s: %s", directory, e);
+        }
+        delete(directory);
+    }
+
+    /**
+     * Deletes the spool directories of instances that are gone
+     */
+    private void sweep() throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(parent, PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (!dir.equals(directory) && Files.isDirectory(dir) && isOrphaned(dir)) {
+                    Logger.info("MediaSpool: deleting orphaned %s", dir);
+                    delete(dir);
+                }
+            }
+        }
+    }
+
+    private static boolean isOrphaned(Path dir) throws IOException {
+        Path file = dir.resolve(LOCK);
+        if (!Files.exists(file))
+            return System.currentTimeMillis() - Files.getLastModifiedTime(dir).toMillis() > GRACE;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            try (FileLock held = channel.tryLock()) {
+                return held != null;
+            }
+        } catch (OverlappingFileLockException e) {
+            return false; // held by another spool in this process
+        } catch (NoSuchFileException e) {
+            return false; // its owner just stopped
+        }
+    }
+
+    private static void delete(Path dir) {
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            Logger.warning("MediaSpool: failed to delete %s: %s", dir, e);
+        }
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param data the asset. Above the threshold it is written to disk, so the caller should drop it
+     */
+    Asset spool(byte[] data) throws IOException {
+        if (data.length < threshold)
+            return new Asset(data, null);
+
+        Path file = Files.createTempFile(directory, "media", ".spool");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return new Asset(null, file);
+    }
+
+    interface Sender {
+        void send(byte[] data) throws Exception;
+    }
+
+    class Asset implements AutoCloseable {
+        private final byte[] data;
+        private final Path file;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Asset(byte[] data, Path file) {
+            this.data = data;
+            this.file = file;
+        }
+
+        /**
+         * Hands the asset to `sender`. The bytes of a spooled asset are only referenced during the call.
+         */
+        void send(Sender sender) throws Exception {
+            if (data != null) {
+                sender.send(data);
+                return;
+            }
+
+            readers.acquire();
+            try {
+                sender.send(read());
+            } finally {
+                readers.release();
+            }
+        }
+
+        private byte[] read() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0)
+                        throw new IOException("Truncated spool file: " + file);
+                }
+                return buffer.array();
+            }
+        }
+
+        /**
+         * Deletes the spool file
+         */
+        @Override
+        public void close() {
+            if (file == null || !closed.compareAndSet(false, true))
+                return;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Logger.warning("MediaSpool: failed to delete %s: %s", file, e);
+            }
+        }
+    }
+}
@@ -27,19 +27,19 @@ import com.wire.bots.sdk.models.AudioMessage;
 import com.wire.bots.sdk.models.ImageMessage;
 import com.wire.bots.sdk.models.TextMessage;
 import com.wire.bots.sdk.models.VideoMessage;
-import com.wire.bots.sdk.server.model.User;
 import com.wire.bots.sdk.tools.Logger;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 
 public class MessageHandler extends MessageHandlerBase {
     private final Broadcaster broadcaster;
+    private final ChannelCache channels;
+    private final ReactionDigest reactions;
 
-    MessageHandler(Broadcaster broadcaster) {
+    MessageHandler(Broadcaster broadcaster, ChannelCache channels, ReactionDigest reactions) {
         this.broadcaster = broadcaster;
+        this.channels = channels;
+        this.reactions = reactions;
     }
 
     @Override
@@ -99,8 +99,10 @@ public class MessageHandler extends MessageHandlerBase {
         try {
             String botId = client.getId();
             Channel channel = getChannel(botId);
-            byte[] bytes = client.downloadAsset(msg.getAssetKey(), msg.getAssetToken(), msg.getSha256(), msg.getOtrKey());
-            msg.setData(bytes);
+            if (isUpload()) {
+                byte[] bytes = client.downloadAsset(msg.getAssetKey(), msg.getAssetToken(), msg.getSha256(), msg.getOtrKey());
+                msg.setData(bytes);
+            }
 
             if (botId.equals(channel.admin)) {
                 Logger.info("New broadcast for Channel: %s", channel.name);
@@ -124,11 +126,13 @@ public class MessageHandler extends MessageHandlerBase {
         try {
             String botId = client.getId();
             Channel channel = getChannel(botId);
-            byte[] audio = client.downloadAsset(msg.getAssetKey(),
-                    msg.getAssetToken(),
-                    msg.getSha256(),
-                    msg.getOtrKey());
-            msg.setData(audio);
+            if (isUpload()) {
+                byte[] audio = client.downloadAsset(msg.getAssetKey(),
+                        msg.getAssetToken(),
+                        msg.getSha256(),
+                        msg.getOtrKey());
+                msg.setData(audio);
+            }
 
             if (botId.equals(channel.admin)) {
                 broadcaster.broadcast(channel, msg);
@@ -153,11 +157,13 @@ public class MessageHandler extends MessageHandlerBase {
         try {
             String botId = client.getId();
             Channel channel = getChannel(botId);
-            byte[] video = client.downloadAsset(msg.getAssetKey(),
-                    msg.getAssetToken(),
-                    msg.getSha256(),
-                    msg.getOtrKey());
-            msg.setData(video);
+            if (isUpload()) {
+                byte[] video = client.downloadAsset(msg.getAssetKey(),
+                        msg.getAssetToken(),
+                        msg.getSha256(),
+                        msg.getOtrKey());
+                msg.setData(video);
+            }
 
             if (botId.equals(channel.admin)) {
                 broadcaster.broadcast(channel, msg);
@@ -203,13 +209,23 @@ public class MessageHandler extends MessageHandlerBase {
             Channel channel = getChannel(botId);
 
             if (msg.hasReaction()) {
-                String userName = getUserName(client, userId);
-                broadcaster.sendToAdminConv(channel.admin, String.format("**@%s** liked your post", userName));
+                reactions.add(channel, msg.getReaction().getMessageId(), userId);
+            }
+
+            if (botId.equals(channel.admin)) {
+                reactions.post(msg);
             }
 
             if (msg.hasDeleted() && botId.equals(channel.admin)) {
                 broadcaster.revokeBroadcast(channel, msg.getDeleted().getMessageId());
             }
+
+            if (msg.hasEdited() && msg.getEdited().hasText() && botId.equals(channel.admin)) {
+                broadcaster.editBroadcast(channel,
+                        msg.getEdited().getReplacingMessageId(),
+                        msg.getMessageId(),
+                        msg.getEdited().getText().getContent());
+            }
         } catch (Exception e) {
             Logger.error(e.getMessage());
         }
@@ -217,16 +233,26 @@ public class MessageHandler extends MessageHandlerBase {
 
     @Override
     public void onEditText(WireClient client, TextMessage msg) {
-        onText(client, msg);
+        try {
+            String botId = client.getId();
+            Channel channel = getChannel(botId);
+
+            // the admin's edits are handled in onEvent, where the id of the edited post is known
+            if (!botId.equals(channel.admin))
+                broadcaster.sendToAdminConv(channel.admin, msg);
+        } catch (Exception e) {
+            Logger.error(e.toString());
+        }
     }
 
-    private Channel getChannel(String botId) throws Exception {
-        Database database = new Database(Service.CONFIG.getPostgres());
-        return database.getSubscribedChannel(botId);
+    /**
+     * @return true if the media has to be downloaded to be sent on, see {@link Broadcaster.Media}
+     */
+    private boolean isUpload() {
+        return Service.CONFIG.media == Broadcaster.Media.upload;
     }
 
-    private String getUserName(WireClient client, String userId) throws IOException {
-        Collection<User> users = client.getUsers(Collections.singletonList(userId));
-        return users.iterator().next().handle;
+    private Channel getChannel(String botId) throws Exception {
+        return channels.getSubscribedChannel(botId);
     }
 }
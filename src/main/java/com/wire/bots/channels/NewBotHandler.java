@@ -6,18 +6,17 @@ import com.wire.bots.sdk.server.model.NewBot;
 import com.wire.bots.sdk.tools.Logger;
 
 public class NewBotHandler {
-    private final Config config;
+    private final ChannelCache channels;
     private final Broadcaster broadcaster;
 
-    NewBotHandler(Config config, Broadcaster broadcaster) {
-        this.config = config;
+    NewBotHandler(ChannelCache channels, Broadcaster broadcaster) {
+        this.channels = channels;
         this.broadcaster = broadcaster;
     }
 
     public boolean onNewBot(String channelId, NewBot newBot) {
         try {
-            Database database = new Database(config.getPostgres());
-            Channel channel = database.getChannel(channelId);
+            Channel channel = channels.getChannel(channelId);
 
             if (channel == null) {
                 Logger.error("Unknown Channel `%s`, bot: %s", channelId, newBot.id);
@@ -0,0 +1,276 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.channels.model.Broadcast;
+import com.wire.bots.channels.model.BroadcastSlice;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+
+import javax.annotation.Nullable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * Durable record of the broadcasts in progress. A broadcast is written before its fan-out starts; the
+ * subscribers (in index order) are split into slices of `batch` and every finished slice is recorded.
+ * The cursor of the broadcast is the last bot of the longest run of finished slices, so after a crash
+ * the broadcast is resumed right after the cursor.
+ * <p>
+ * Finished slices are buffered and written every `interval` in a single transaction. The same write
+ * serves as a heartbeat of the running broadcasts: those not updated for a minute are considered
+ * abandoned and are claimed by whichever replica finds them first.
+ */
+class Outbox implements Managed {
+    static final String TEXT = "text";
+    static final String URL = "url";
+    static final String REVOKE = "revoke";
+    static final String POST = "post";      // text under the admin's message id, see TextPost.encode()
+
+    private static final String RUNNING = "running";
+    private static final String DONE = "done";
+    private static final int RETENTION = 7;//days
+    private static final int ABANDONED = 60;//sec
+
+    private final Database database;
+    private final int batch;
+    private final Duration interval;
+    private final ConcurrentLinkedQueue<BroadcastSlice> slices = new ConcurrentLinkedQueue<>();
+    private final Set<Tracker> active = ConcurrentHashMap.newKeySet();
+    private final Set<Tracker> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "outbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService recovery = Executors.newSingleThreadExecutor(r -> new Thread(r, "outbox-recovery"));
+    private final AtomicBoolean recovering = new AtomicBoolean();
+    private volatile Consumer<Broadcast> onRecovery;
+    private volatile Runnable beforeCheckpoint = () -> {
+    };
+
+    Outbox(Database database, int batch, Duration interval) {
+        this.database = database;
+        this.batch = batch;
+        this.interval = interval;
+    }
+
+    @Override
+    public void start() throws Exception {
+        database.runScript("db/outbox.sql");
+        int deleted = database.deleteBroadcasts(DONE, RETENTION);
+        if (deleted > 0)
+            Logger.info("Outbox: deleted %d finished broadcasts", deleted);
+
+        long millis = interval.toMilliseconds();
+        scheduler.scheduleWithFixedDelay(this::flush, millis, millis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::recover, 0, ABANDONED, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        recovery.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @param onRecovery resumes an abandoned broadcast, see {@link #resume(Broadcast, SubscriberIndex.Snapshot)}
+     */
+    void onRecovery(Consumer<Broadcast> onRecovery) {
+        this.onRecovery = onRecovery;
+    }
+
+    /**
+     * @param beforeCheckpoint makes durable whatever the fan-outs recorded for the bots they are done with,
+     *                         see {@link Ledger#flush()}. Runs before the cursors are written
+     */
+    void beforeCheckpoint(Runnable beforeCheckpoint) {
+        this.beforeCheckpoint = beforeCheckpoint;
+    }
+
+    /**
+     * Records a new broadcast. If it cannot be recorded the broadcast goes on, just not durably.
+     *
+     * @return tracker to report the progress to, null if the broadcast could not be recorded
+     */
+    @Nullable
+    Tracker create(String channelId, String type, String payload, SubscriberIndex.Snapshot ids) {
+        Broadcast broadcast = new Broadcast();
+        broadcast.id = UUID.randomUUID();
+        broadcast.channel = channelId;
+        broadcast.type = type;
+        broadcast.payload = payload;
+        broadcast.status = RUNNING;
+        try {
+            database.insertBroadcast(broadcast);
+        } catch (SQLException e) {
+            Logger.warning("Outbox: failed to record broadcast for channel: %s, %s", channelId, e);
+            return null;
+        }
+        return track(broadcast, ids);
+    }
+
+    /**
+     * @param ids subscribers still to be sent to
+     */
+    Tracker resume(Broadcast broadcast, SubscriberIndex.Snapshot ids) {
+        return track(broadcast, ids);
+    }
+
+    private Tracker track(Broadcast broadcast, SubscriberIndex.Snapshot ids) {
+        Tracker tracker = new Tracker(broadcast, ids);
+        if (ids.size() == 0)
+            dirty.add(tracker);
+        else
+            active.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Claims one abandoned broadcast at the time. A claimed broadcast has no heartbeat until its resume took
+     * a tracker, so one waiting behind another resume would be claimed again by another replica meanwhile.
+     * The next one is claimed as soon as the resume is under way.
+     */
+    private void recover() {
+        Consumer<Broadcast> handler = onRecovery;
+        if (handler == null || !recovering.compareAndSet(false, true))
+            return;
+
+        try {
+            ArrayList<Broadcast> claimed = database.claimBroadcasts(RUNNING, ABANDONED, 1);
+            if (claimed.isEmpty()) {
+                recovering.set(false);
+                return;
+            }
+
+            Broadcast broadcast = claimed.get(0);
+            recovery.execute(() -> {
+                try {
+                    handler.accept(broadcast);
+                } finally {
+                    recovering.set(false);
+                    next();
+                }
+            });
+        } catch (Exception e) {
+            recovering.set(false);
+            Logger.warning("Outbox: recovery failed: %s", e);
+        }
+    }
+
+    private void next() {
+        try {
+            scheduler.execute(this::recover);
+        } catch (RejectedExecutionException ignored) {
+            // stopped
+        }
+    }
+
+    synchronized void flush() {
+        ArrayList<BroadcastSlice> finished = new ArrayList<>();
+        for (BroadcastSlice slice = slices.poll(); slice != null; slice = slices.poll()) {
+            finished.add(slice);
+        }
+
+        // the running broadcasts are always written, that is their heartbeat
+        dirty.addAll(active);
+        ArrayList<Tracker> trackers = new ArrayList<>(dirty);
+        dirty.removeAll(trackers);
+        ArrayList<Broadcast> broadcasts = new ArrayList<>(trackers.size());
+        for (Tracker tracker : trackers) {
+            broadcasts.add(tracker.checkpoint());
+        }
+
+        if (finished.isEmpty() && broadcasts.isEmpty())
+            return;
+
+        try {
+            // the cursors taken above must not get ahead of what the ledgers have on disk
+            beforeCheckpoint.run();
+            database.checkpoint(finished, broadcasts);
+        } catch (Exception e) {
+            Logger.warning("Outbox: checkpoint failed: %s", e);
+            slices.addAll(finished);
+            dirty.addAll(trackers);
+        }
+    }
+
+    /**
+     * Progress of one broadcast
+     */
+    class Tracker {
+        private final Broadcast broadcast;
+        private final SubscriberIndex.Snapshot ids;
+        private final AtomicIntegerArray remaining;
+        private final AtomicIntegerArray failed;
+        private final boolean[] finished;
+        private int watermark; // slices before it are all finished
+
+        private Tracker(Broadcast broadcast, SubscriberIndex.Snapshot ids) {
+            this.broadcast = broadcast;
+            this.ids = ids;
+
+            int count = (ids.size() + batch - 1) / batch;
+            remaining = new AtomicIntegerArray(count);
+            failed = new AtomicIntegerArray(count);
+            finished = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                remaining.set(i, Math.min(batch, ids.size() - i * batch));
+            }
+        }
+
+        /**
+         * @param i index of the subscriber in the snapshot the broadcast was started with
+         */
+        void done(int i, boolean delivered) {
+            int slice = i / batch;
+            if (!delivered)
+                failed.incrementAndGet(slice);
+            if (remaining.decrementAndGet(slice) == 0)
+                finish(slice);
+        }
+
+        private synchronized void finish(int slice) {
+            int from = slice * batch;
+            int to = Math.min(from + batch, ids.size());
+
+            BroadcastSlice row = new BroadcastSlice();
+            row.broadcast = broadcast.id;
+            row.first = ids.get(from);
+            row.last = ids.get(to - 1);
+            row.failed = failed.get(slice);
+            row.delivered = to - from - row.failed;
+            slices.add(row);
+
+            finished[slice] = true;
+            int before = watermark;
+            while (watermark < finished.length && finished[watermark])
+                watermark++;
+
+            if (watermark != before)
+                dirty.add(this);
+            if (watermark == finished.length)
+                active.remove(this);
+        }
+
+        private synchronized Broadcast checkpoint() {
+            if (watermark > 0)
+                broadcast.cursor = ids.get(Math.min(watermark * batch, ids.size()) - 1);
+            if (watermark == finished.length)
+                broadcast.status = DONE;
+
+            Broadcast ret = new Broadcast();
+            ret.id = broadcast.id;
+            ret.cursor = broadcast.cursor;
+            ret.status = broadcast.status;
+            return ret;
+        }
+    }
+}
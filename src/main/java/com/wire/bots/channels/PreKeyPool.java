@@ -0,0 +1,85 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.sdk.crypto.Crypto;
+import com.wire.bots.sdk.factories.CryptoFactory;
+import com.wire.bots.sdk.server.model.NewBotResponseModel;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.*;
+
+/**
+ * Generates the pre-keys of joining bots on a few dedicated threads, so a join storm queues up here instead of
+ * spinning every request thread, and a full queue is answered with 503 for the backend to retry later.
+ * Pre-keys belong to the bot's own identity, which only exists once the bot joined, so they cannot be made
+ * ahead of the join; the generation instead overlaps with storing the new bot.
+ */
+public class PreKeyPool implements Managed {
+    private final CryptoFactory cryptoF;
+    private final ThreadPoolExecutor executor;
+    private final Timer generate;
+    private final long timeout;
+
+    public PreKeyPool(CryptoFactory cryptoF, Config.PreKeys config, MetricRegistry metrics) {
+        this.cryptoF = cryptoF;
+        this.timeout = config.timeout.toMilliseconds();
+        this.executor = new ThreadPoolExecutor(config.threads, config.threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.queue),
+                r -> {
+                    Thread thread = new Thread(r, "prekeys");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.generate = metrics.timer(MetricRegistry.name(PreKeyPool.class, "generate"));
+        metrics.register(MetricRegistry.name(PreKeyPool.class, "pending"), (Gauge<Integer>) () -> executor.getQueue().size());
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts generating the keys of the bot
+     *
+     * @return response carrying the last pre-key and `count` pre-keys
+     * @throws RejectedExecutionException when too many joins are already waiting for keys
+     */
+    public Future<NewBotResponseModel> generate(String botId, int count) {
+        return executor.submit(() -> {
+            try (Timer.Context ignored = generate.time();
+                 Crypto crypto = cryptoF.create(botId)) {
+                NewBotResponseModel ret = new NewBotResponseModel();
+                ret.lastPreKey = crypto.newLastPreKey();
+                ret.preKeys = crypto.newPreKeys(0, count);
+                return ret;
+            }
+        });
+    }
+
+    /**
+     * @return the keys started with {@link #generate(String, int)}
+     */
+    public NewBotResponseModel get(Future<NewBotResponseModel> keys) throws Exception {
+        try {
+            return keys.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Stops generating keys nobody waits for anymore. Does nothing if they are done already
+     */
+    public void cancel(Future<NewBotResponseModel> keys) {
+        if (keys.cancel(true))
+            executor.purge();
+    }
+}
@@ -0,0 +1,27 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.Configuration;
+import com.wire.bots.sdk.server.model.NewBot;
+import com.wire.bots.sdk.state.RedisState;
+
+import java.io.IOException;
+
+/**
+ * RedisState that first looks for a state loaded by {@link StateLoader}
+ */
+class PrefetchedState extends RedisState {
+    private final String botId;
+    private final StateLoader loader;
+
+    PrefetchedState(String botId, Configuration.DB db, StateLoader loader) {
+        super(botId, db);
+        this.botId = botId;
+        this.loader = loader;
+    }
+
+    @Override
+    public NewBot getState() throws IOException {
+        NewBot state = loader.take(botId);
+        return state != null ? state : super.getState();
+    }
+}
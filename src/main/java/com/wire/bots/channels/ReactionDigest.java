@@ -0,0 +1,170 @@
+package com.wire.bots.channels;
+
+import com.google.common.cache.CacheBuilder;
+import com.waz.model.Messages;
+import com.wire.bots.channels.model.Channel;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the reactions to each post and tells the admin once per `interval`:
+ * "42 likes on _Hello everyone_ in the last minute, including @a, @b". Text posts and media references
+ * carry the admin's message id on every subscriber, so that is what the reactions are counted by. Posts
+ * sent under a new id per subscriber (links, forwarded texts, uploaded audio and video) are counted per channel.
+ * The few named users are looked up in one call.
+ */
+class ReactionDigest implements Managed {
+    private static final int NAMES = 5;
+    private static final int EXCERPT = 40;
+
+    private final ClientRepo repo;
+    private final Duration interval;
+    private final ConcurrentHashMap<String, Digest> digests = new ConcurrentHashMap<>();//<MessageId|ChannelId, Digest>
+    private final com.google.common.cache.Cache<String, String> posts = CacheBuilder.newBuilder()//<MessageId, Label>
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.DAYS)
+            .build();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "reactions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ReactionDigest(ClientRepo repo, Duration interval) {
+        this.repo = repo;
+        this.interval = interval;
+    }
+
+    @Override
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, interval.getQuantity(), interval.getQuantity(), interval.getUnit());
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Remembers a message of the admin, to name the post in its digests
+     */
+    void post(Messages.GenericMessage msg) {
+        String label = label(msg);
+        if (label != null)
+            posts.put(msg.getMessageId(), label);
+    }
+
+    /**
+     * @param messageId the post reacted to
+     */
+    void add(Channel channel, String messageId, String userId) {
+        if (channel.admin == null)
+            return;
+        String label = posts.getIfPresent(messageId);
+        // atomic with the remove in flush(), so no reaction lands in a digest that is already sent
+        digests.compute(label != null ? messageId : channel.id, (k, digest) -> {
+            if (digest == null)
+                digest = new Digest(channel.admin, label);
+            digest.add(userId);
+            return digest;
+        });
+    }
+
+    void flush() {
+        for (String key : digests.keySet()) {
+            Digest digest = digests.remove(key);
+            if (digest == null)
+                continue;
+            try {
+                send(digest);
+            } catch (Exception e) {
+                Logger.warning("ReactionDigest: %s, error: %s", key, e);
+            }
+        }
+    }
+
+    private void send(Digest digest) throws Exception {
+        WireClient admin = repo.getWireClient(digest.admin);
+        if (admin == null)
+            return;
+
+        int count = digest.count;
+        ArrayList<String> names = new ArrayList<>();
+        for (String handle : UserHandles.get(admin, digest.users).values()) {
+            names.add("**@" + handle + "**");
+        }
+
+        String text = String.format("%d %s on %s in the last %s",
+                count,
+                count == 1 ? "like" : "likes",
+                digest.label != null ? digest.label : "your posts",
+                period());
+        if (!names.isEmpty())
+            text += ", including " + String.join(", ", names);
+        admin.sendText(text);
+    }
+
+    @Nullable
+    private static String label(Messages.GenericMessage msg) {
+        if (msg.hasText())
+            return excerpt(msg.getText().getContent());
+        if (msg.hasEdited() && msg.getEdited().hasText())
+            return excerpt(msg.getEdited().getText().getContent());
+        if (msg.hasImage())
+            return "a picture";
+        if (msg.hasAsset() && msg.getAsset().hasOriginal()) {
+            String mimeType = msg.getAsset().getOriginal().getMimeType();
+            if (mimeType.startsWith("image"))
+                return "a picture";
+            if (mimeType.startsWith("audio"))
+                return "an audio message";
+            if (mimeType.startsWith("video"))
+                return "a video";
+            return "a file";
+        }
+        return null;
+    }
+
+    private static String excerpt(String text) {
+        String excerpt = text.replaceAll("\\s+", " ").trim();
+        if (excerpt.length() > EXCERPT)
+            excerpt = excerpt.substring(0, EXCERPT) + "…";
+        return "_" + excerpt + "_";
+    }
+
+    private String period() {
+        long seconds = interval.toSeconds();
+        if (seconds == 60)
+            return "minute";
+        return seconds % 60 == 0 ? (seconds / 60) + " minutes" : seconds + " seconds";
+    }
+
+    private static class Digest {
+        private final String admin;
+        private final String label;
+        private final Set<String> users = new LinkedHashSet<>();
+        private int count;
+
+        Digest(String admin, @Nullable String label) {
+            this.admin = admin;
+            this.label = label;
+        }
+
+        void add(String userId) {
+            count++;
+            if (users.size() < NAMES)
+                users.add(userId);
+        }
+    }
+}
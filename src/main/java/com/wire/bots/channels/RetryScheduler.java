@@ -0,0 +1,335 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.channels.model.DeadLetter;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.exceptions.HttpException;
+import com.wire.bots.sdk.exceptions.MissingStateException;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Retries failed sends with jittered exponential backoff. Retries run on their own threads, so they never
+ * hold up the first attempts of a broadcast, but take their slots from the same {@link AdaptiveLimiter}, so
+ * under overload they do not add a second, unthrottled stream of requests; a throttled retry counts as a
+ * failed attempt. Sends that fail permanently (the bot is gone) are dropped;
+ * those still failing after `attempts` retries are written to the DeadLetters table, from where they can
+ * be replayed in bulk. Retries pending at shutdown are dead-lettered too.
+ * <p>
+ * A replay only claims its letters. A letter is deleted once its replay went through or was dropped, and
+ * released again if the replay ends up dead-lettered; a claim left behind by a crash expires after `claim`.
+ */
+public class RetryScheduler implements Managed {
+    private static final int FLUSH = 1;//sec
+
+    private final ClientRepo repo;
+    private final Database database;
+    private final AdaptiveLimiter limiter;
+    private final Config.Retry config;
+    private final ScheduledExecutorService scheduler;
+    private final Set<Retry> pending = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<DeadLetter> letters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Long> settled = new ConcurrentLinkedQueue<>();
+    private volatile Consumer<List<DeadLetter>> onReplay;
+
+    public RetryScheduler(ClientRepo repo, Database database, AdaptiveLimiter limiter, Config.Retry config) {
+        this.repo = repo;
+        this.database = database;
+        this.limiter = limiter;
+        this.config = config;
+        this.scheduler = Executors.newScheduledThreadPool(config.threads, r -> {
+            Thread thread = new Thread(r, "retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start() throws Exception {
+        database.runScript("db/deadletters.sql");
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH, FLUSH, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+        for (Retry retry : pending) {
+            if (pending.remove(retry))
+                retry.drop.run();
+        }
+        flush();
+    }
+
+    /**
+     * @param onReplay sends the replayed dead letters again, see {@link #submit(Delivery)}
+     */
+    void onReplay(Consumer<List<DeadLetter>> onReplay) {
+        this.onReplay = onReplay;
+    }
+
+    /**
+     * Reports a failed attempt. Unless the error is permanent the delivery is retried later.
+     */
+    public void failed(Delivery delivery, Exception e) {
+        if (isPermanent(e)) {
+            Logger.info("Retry: dropped, Bot: %s. Error: %s", delivery.botId, e.getMessage());
+            complete(delivery, false);
+            return;
+        }
+
+        delivery.error = e.getMessage();
+        schedule(delivery.attempts++, () -> attempt(delivery), () -> deadLetter(delivery));
+    }
+
+    /**
+     * Sends the delivery right away on a retry thread
+     */
+    void submit(Delivery delivery) {
+        try {
+            scheduler.execute(() -> attempt(delivery));
+        } catch (RejectedExecutionException e) {
+            deadLetter(delivery);
+        }
+    }
+
+    /**
+     * Runs `task` after the backoff delay of `attempt`. If there are no attempts left, or the scheduler
+     * is shut down before the task runs, `drop` is run instead.
+     */
+    void schedule(int attempt, Runnable task, Runnable drop) {
+        if (attempt >= config.attempts) {
+            drop.run();
+            return;
+        }
+
+        Retry retry = new Retry(drop);
+        pending.add(retry);
+        try {
+            scheduler.schedule(() -> {
+                if (pending.remove(retry))
+                    task.run();
+            }, delay(attempt), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (pending.remove(retry))
+                drop.run();
+        }
+    }
+
+    /**
+     * Queues the delivery for the DeadLetters table. Deliveries without a payload cannot be replayed
+     * and are only logged.
+     */
+    void deadLetter(Delivery delivery) {
+        if (delivery.type == null || delivery.payload == null)
+            Logger.warning("Retry: gave up, Bot: %s. Error: %s", delivery.botId, delivery.error);
+        else
+            deadLetter(delivery.letter, UUID.fromString(delivery.botId), delivery.channel, delivery.type, delivery.payload, delivery.error);
+        delivery.complete(false);
+    }
+
+    void deadLetter(UUID botId, @Nullable String channel, String type, String payload, @Nullable String error) {
+        deadLetter(0, botId, channel, type, payload, error);
+    }
+
+    /**
+     * @param id the replayed letter, 0 for a new one
+     */
+    private void deadLetter(long id, UUID botId, @Nullable String channel, String type, String payload, @Nullable String error) {
+        DeadLetter letter = new DeadLetter();
+        letter.id = id;
+        letter.bot = botId;
+        letter.channel = channel;
+        letter.type = type;
+        letter.payload = payload;
+        letter.error = error;
+        letters.add(letter);
+    }
+
+    /**
+     * Claims up to `limit` dead letters and sends them again
+     *
+     * @return number of replayed letters
+     */
+    public int replay(int limit) throws Exception {
+        Consumer<List<DeadLetter>> handler = onReplay;
+        if (handler == null)
+            return 0;
+
+        ArrayList<DeadLetter> replay = database.claimDeadLetters((int) config.claim.toSeconds(), limit);
+        if (!replay.isEmpty()) {
+            Logger.info("Retry: replaying %d dead letters", replay.size());
+            handler.accept(replay);
+        }
+        return replay.size();
+    }
+
+    static boolean isPermanent(Exception e) {
+        if (e instanceof MissingStateException)
+            return true;
+        if (e instanceof HttpException) {
+            int status = ((HttpException) e).getStatusCode();
+            return status == 404 || status == 410;
+        }
+        return false;
+    }
+
+    /**
+     * @return delay in millis, between half and all of delay * 2^attempt, capped at maxDelay
+     */
+    long delay(int attempt) {
+        long max = Math.min(config.maxDelay.toMilliseconds(), config.delay.toMilliseconds() << Math.min(attempt, 30));
+        return ThreadLocalRandom.current().nextLong(max / 2, max + 1);
+    }
+
+    private void attempt(Delivery delivery) {
+        try {
+            WireClient client = repo.getWireClient(delivery.botId);
+            if (client == null) {
+                complete(delivery, false);
+                return;
+            }
+            send(client, delivery);
+            complete(delivery, true);
+        } catch (Exception e) {
+            failed(delivery, e);
+        }
+    }
+
+    private void send(WireClient client, Delivery delivery) throws Exception {
+        if (!limiter.acquire())
+            throw new RejectedExecutionException("Throttled");
+
+        AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.SUCCESS;
+        long start = System.nanoTime();
+        try {
+            delivery.send.send(client);
+        } catch (Exception e) {
+            outcome = AdaptiveLimiter.classify(e);
+            throw e;
+        } finally {
+            limiter.release(System.nanoTime() - start, outcome);
+        }
+    }
+
+    /**
+     * Completes a delivery that will not be dead-lettered. A replayed letter is done with.
+     */
+    private void complete(Delivery delivery, boolean delivered) {
+        if (delivery.letter != 0)
+            settled.add(delivery.letter);
+        delivery.complete(delivered);
+    }
+
+    private void flush() {
+        ArrayList<DeadLetter> batch = new ArrayList<>();
+        ArrayList<DeadLetter> released = new ArrayList<>();
+        for (DeadLetter letter = letters.poll(); letter != null; letter = letters.poll()) {
+            if (letter.id == 0)
+                batch.add(letter);
+            else
+                released.add(letter);
+        }
+        ArrayList<Long> done = new ArrayList<>();
+        for (Long id = settled.poll(); id != null; id = settled.poll()) {
+            done.add(id);
+        }
+
+        if (!batch.isEmpty()) {
+            try {
+                database.insertDeadLetters(batch);
+                Logger.warning("Retry: %d sends moved to the dead letters", batch.size());
+            } catch (Exception e) {
+                Logger.error("Retry: failed to store %d dead letters: %s", batch.size(), e);
+                letters.addAll(batch);
+            }
+        }
+        if (!released.isEmpty()) {
+            try {
+                database.releaseDeadLetters(released);
+                Logger.warning("Retry: %d replayed dead letters failed again", released.size());
+            } catch (Exception e) {
+                Logger.error("Retry: failed to release %d dead letters: %s", released.size(), e);
+                letters.addAll(released);
+            }
+        }
+        if (!done.isEmpty()) {
+            try {
+                database.deleteDeadLetters(done);
+            } catch (Exception e) {
+                Logger.error("Retry: failed to delete %d replayed dead letters: %s", done.size(), e);
+                settled.addAll(done);
+            }
+        }
+    }
+
+    public interface Send {
+        void send(WireClient client) throws Exception;
+    }
+
+    /**
+     * One message to one bot
+     */
+    public static class Delivery {
+        private final String botId;
+        private final String channel;
+        private final String type;
+        private final String payload;
+        private final Send send;
+        private final Consumer<Boolean> onComplete;
+        private long letter;
+        private int attempts;
+        private String error;
+
+        /**
+         * @param type       kind of payload, see {@link Outbox}. Together with the payload it is what gets
+         *                   dead-lettered; a delivery without them is retried but never replayed
+         * @param onComplete called once with whether the delivery eventually went through
+         */
+        public Delivery(String botId,
+                        @Nullable String channel,
+                        @Nullable String type,
+                        @Nullable String payload,
+                        Send send,
+                        @Nullable Consumer<Boolean> onComplete) {
+            this.botId = botId;
+            this.channel = channel;
+            this.type = type;
+            this.payload = payload;
+            this.send = send;
+            this.onComplete = onComplete;
+        }
+
+        /**
+         * Marks the delivery as the replay of the dead letter `id`
+         */
+        Delivery replaying(long id) {
+            this.letter = id;
+            return this;
+        }
+
+        public static Delivery text(String botId, String text) {
+            return new Delivery(botId, null, Outbox.TEXT, text, client -> client.sendText(text), null);
+        }
+
+        private void complete(boolean delivered) {
+            if (onComplete != null)
+                onComplete.accept(delivered);
+        }
+    }
+
+    private static class Retry {
+        private final Runnable drop;
+
+        private Retry(Runnable drop) {
+            this.drop = drop;
+        }
+    }
+}
@@ -19,8 +19,10 @@
 package com.wire.bots.channels;
 
 import com.github.mtakaki.dropwizard.admin.AdminResourceBundle;
+import com.wire.bots.channels.clients.ForwardClient;
 import com.wire.bots.channels.resource.BatchForwardResource;
 import com.wire.bots.channels.resource.BotsResource;
+import com.wire.bots.channels.resource.DeadLetterResource;
 import com.wire.bots.channels.resource.ForwardResource;
 import com.wire.bots.channels.resource.MessageResource;
 import com.wire.bots.sdk.MessageHandlerBase;
@@ -29,14 +31,24 @@ import com.wire.bots.sdk.crypto.CryptoDatabase;
 import com.wire.bots.sdk.crypto.storage.RedisStorage;
 import com.wire.bots.sdk.factories.CryptoFactory;
 import com.wire.bots.sdk.factories.StorageFactory;
-import com.wire.bots.sdk.state.RedisState;
 import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.db.ManagedDataSource;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 
 public class Service extends Server<Config> {
     public static Config CONFIG;
     private final AdminResourceBundle admin = new AdminResourceBundle();
+    private Database database;
+    private ChannelCache channels;
+    private SubscriberIndex subscribers;
+    private DatabaseListener listener;
+    private ClientCache clients;
+    private StateLoader states;
+    private Dispatcher dispatcher;
+    private ForwardClient forwardClient;
+    private Outbox outbox;
+    private RetryScheduler retries;
     private Broadcaster broadcaster;
 
     public static void main(String[] args) {
@@ -50,8 +62,42 @@ public class Service extends Server<Config> {
 
     @Override
     protected MessageHandlerBase createHandler(Config config, Environment env) throws Exception {
-        broadcaster = new Broadcaster(repo);
-        return new MessageHandler(broadcaster);
+        clients = new ClientCache(repo, config.clients, env.metrics());
+        env.lifecycle().manage(clients);
+        listener.onUnsubscribe(clients::invalidate);
+        states.skip(clients::contains);
+
+        AdaptiveLimiter limiter = new AdaptiveLimiter("broadcast", config.limiter, config.getMaxInFlight(), env.metrics());
+        retries = new RetryScheduler(clients, database, limiter, config.retry);
+        env.lifecycle().manage(retries);
+
+        MediaSpool spool = new MediaSpool(config.spool);
+        env.lifecycle().manage(spool);
+
+        Ledger ledger = new Ledger(config.ledger);
+        env.lifecycle().manage(ledger);
+
+        broadcaster = new Broadcaster(clients,
+                states,
+                subscribers,
+                dispatcher,
+                forwardClient,
+                outbox,
+                limiter,
+                retries,
+                spool,
+                ledger,
+                env.metrics());
+        outbox.onRecovery(broadcast -> broadcaster.resume(broadcast, channels));
+        outbox.beforeCheckpoint(ledger::flush);
+        retries.onReplay(letters -> broadcaster.replay(letters, channels));
+
+        Warmup warmup = new Warmup(config, channels, subscribers, clients, dispatcher, retries, spool);
+        env.lifecycle().manage(warmup);
+        env.healthChecks().register("warmup", warmup);
+        ReactionDigest reactions = new ReactionDigest(clients, config.reactions);
+        env.lifecycle().manage(reactions);
+        return new MessageHandler(broadcaster, channels, reactions);
     }
 
     @Override
@@ -63,9 +109,31 @@ public class Service extends Server<Config> {
     protected void initialize(Config config, Environment env) throws Exception {
         CONFIG = config;
         Logger.info("Channel Service Host: %s", config.host);
+        Logger.info("Workers: %s", config.getWorkers());
         Logger.info("DB Host: %s", config.db.host);
         env.jersey().setUrlPattern("/channels/*");
 
+        ManagedDataSource dataSource = config.getDataSourceFactory().build(env.metrics(), "postgres");
+        env.lifecycle().manage(dataSource);
+        database = new Database(dataSource, env.metrics());
+        channels = new ChannelCache(database);
+        env.lifecycle().manage(Cache.init(database, env.metrics()));
+        subscribers = new SubscriberIndex(database);
+        listener = new DatabaseListener(config, channels, subscribers);
+        env.lifecycle().manage(listener);
+
+        states = new StateLoader(config.db, config.states);
+        env.lifecycle().manage(states);
+
+        dispatcher = new Dispatcher(config, env.metrics());
+        env.lifecycle().manage(dispatcher);
+
+        forwardClient = new ForwardClient(config.getWorkers(), config.forward);
+        env.lifecycle().manage(forwardClient);
+
+        outbox = new Outbox(database, config.batch, config.checkpoint);
+        env.lifecycle().manage(outbox);
+
         //Logger.info("Starting Storage migration...");
         //Migration migration = new Migration(getStorageFactory(config));
         //migration.migrateSubscribers();
@@ -75,31 +143,42 @@ public class Service extends Server<Config> {
     @Override
     protected void onRun(Config config, Environment env) {
         admin.getJerseyEnvironment()
-                .register(new ForwardResource(repo));
+                .register(new ForwardResource(clients));
+        admin.getJerseyEnvironment()
+                .register(new BatchForwardResource(clients,
+                        states,
+                        database,
+                        subscribers,
+                        new AdaptiveLimiter("forward", config.limiter, env.metrics()),
+                        retries));
         admin.getJerseyEnvironment()
-                .register(new BatchForwardResource(repo));
+                .register(new DeadLetterResource(retries));
     }
 
     @Override
     protected void botResource(Config config, Environment env, MessageHandlerBase handler) {
-        CryptoFactory cryptoFactory = getCryptoFactory(config);
         StorageFactory storageFactory = getStorageFactory(config);
+        PreKeyPool preKeys = new PreKeyPool(getCryptoFactory(config), config.preKeys, env.metrics());
+        env.lifecycle().manage(preKeys);
 
-        NewBotHandler newBotHandler = new NewBotHandler(config, broadcaster);
-        BotsResource botsResource = new BotsResource(newBotHandler, storageFactory, cryptoFactory);
+        NewBotHandler newBotHandler = new NewBotHandler(channels, broadcaster);
+        BotsResource botsResource = new BotsResource(newBotHandler, database, channels, subscribers, storageFactory, preKeys);
 
         addResource(botsResource, env);
     }
 
     @Override
     protected void messageResource(Config config, Environment env, MessageHandlerBase handler) {
-        MessageResource messageResource = new MessageResource(handler, repo, config);
+        StripedExecutor ingest = new StripedExecutor(config.ingest, env.metrics());
+        env.lifecycle().manage(ingest);
+
+        MessageResource messageResource = new MessageResource(handler, clients, channels, ingest);
         addResource(messageResource, env);
     }
 
     @Override
     protected StorageFactory getStorageFactory(Config config) {
-        return botId -> new RedisState(botId, config.db);
+        return botId -> new PrefetchedState(botId, config.db, states);
     }
 
     @Override
@@ -0,0 +1,117 @@
+package com.wire.bots.channels;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.wire.bots.sdk.Configuration;
+import com.wire.bots.sdk.server.model.NewBot;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Loads the state of many bots with one MGET per `batch` bots, ahead of resolving their clients. The states
+ * are parked for a short while and picked up by {@link PrefetchedState} when the client is built, so
+ * resolving a channel's subscribers costs a few round trips instead of one per subscriber.
+ */
+public class StateLoader implements Managed {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Configuration.DB db;
+    private final int batch;
+    private final com.google.common.cache.Cache<String, NewBot> states = CacheBuilder.newBuilder()//<BotId, NewBot>
+            .maximumSize(100_000)
+            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .build();
+    private volatile Predicate<String> skip = botId -> false;
+    private JedisPool pool;
+
+    StateLoader(Configuration.DB db, Config.States config) {
+        this.db = db;
+        this.batch = config.batch;
+    }
+
+    @Override
+    public void start() {
+        pool = new JedisPool(new JedisPoolConfig(), db.host, db.port, Protocol.DEFAULT_TIMEOUT, db.password);
+    }
+
+    @Override
+    public void stop() {
+        pool.close();
+    }
+
+    /**
+     * @param skip bots that need no state, e.g. those with a cached client
+     */
+    void skip(Predicate<String> skip) {
+        this.skip = skip;
+    }
+
+    int getBatch() {
+        return batch;
+    }
+
+    /**
+     * Loads the states of the bots. Failures are logged, the bots then load their state one by one.
+     */
+    public void prefetch(Collection<String> botIds) {
+        List<String> ids = new ArrayList<>(Math.min(botIds.size(), batch));
+        for (String botId : botIds) {
+            if (skip.test(botId) || states.getIfPresent(botId) != null)
+                continue;
+            ids.add(botId);
+            if (ids.size() == batch) {
+                load(ids);
+                ids.clear();
+            }
+        }
+        if (!ids.isEmpty())
+            load(ids);
+    }
+
+    /**
+     * @return the prefetched state, at most once
+     */
+    @Nullable
+    NewBot take(String botId) {
+        NewBot state = states.getIfPresent(botId);
+        if (state != null)
+            states.invalidate(botId);
+        return state;
+    }
+
+    private void load(List<String> ids) {
+        String[] keys = new String[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(ids.get(i));
+        }
+
+        try (Jedis jedis = pool.getResource()) {
+            List<String> values = jedis.mget(keys);
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                if (value != null)
+                    states.put(ids.get(i), mapper.readValue(value, NewBot.class));
+            }
+        } catch (Exception e) {
+            Logger.warning("StateLoader: failed to load %d states: %s", ids.size(), e);
+        }
+    }
+
+    /**
+     * Same key as {@link com.wire.bots.sdk.state.RedisState} keeps the state under
+     */
+    private static String key(String botId) {
+        return String.format("bot_%s", botId);
+    }
+}
@@ -0,0 +1,71 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs the inbound events off the request threads. Events with the same key (bot id) go to the same stripe,
+ * one thread with a queue of `queue` events, so they are handled in the order they arrived while different
+ * bots are handled in parallel. A bot that blocks, like an admin's broadcast does, holds up only the bots
+ * that share its stripe. When the stripe's queue is full the event is rejected, so the caller can answer 503.
+ */
+public class StripedExecutor implements Managed {
+    private final ThreadPoolExecutor[] stripes;
+    private final Timer latency;
+
+    StripedExecutor(Config.Ingest config, MetricRegistry metrics) {
+        stripes = new ThreadPoolExecutor[config.stripes];
+        for (int i = 0; i < stripes.length; i++) {
+            String name = "ingest-" + i;
+            stripes[i] = new ThreadPoolExecutor(1, 1,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(config.queue),
+                    r -> new Thread(r, name));
+        }
+
+        latency = metrics.timer(MetricRegistry.name(StripedExecutor.class, "latency"));
+        metrics.register(MetricRegistry.name(StripedExecutor.class, "queue"), (Gauge<Integer>) this::getQueueDepth);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+        for (ThreadPoolExecutor stripe : stripes) {
+            if (!stripe.awaitTermination(30, TimeUnit.SECONDS))
+                Logger.warning("StripedExecutor: %d events dropped on shutdown", stripe.shutdownNow().size());
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException when the stripe of the key is full
+     */
+    public void execute(String key, Runnable task) {
+        Timer.Context queued = latency.time();
+        stripes[Math.floorMod(key.hashCode(), stripes.length)].execute(() -> {
+            queued.stop();
+            task.run();
+        });
+    }
+
+    /**
+     * @return events waiting on all stripes
+     */
+    int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor stripe : stripes) {
+            depth += stripe.getQueue().size();
+        }
+        return depth;
+    }
+}
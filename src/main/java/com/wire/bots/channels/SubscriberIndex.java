@@ -0,0 +1,218 @@
+package com.wire.bots.channels;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resident copy of the Subscribers table. Bot ids are kept per channel as sorted (msb, lsb) pairs in a
+ * single long[] so that a channel with 100k subscribers costs ~1.6MB and can be iterated without
+ * allocating. Readers get an immutable {@link Snapshot}; writers copy the array only if it was handed out.
+ */
+public class SubscriberIndex {
+    private final Database database;
+    private volatile ConcurrentHashMap<String, Subscribers> channels = new ConcurrentHashMap<>();//<ChannelId, Subscribers>
+
+    public SubscriberIndex(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * (Re)loads the whole index from the database
+     */
+    void load() throws SQLException {
+        ConcurrentHashMap<String, Subscribers> loaded = new ConcurrentHashMap<>();
+        database.loadSubscribers((botId, channelId) -> loaded
+                .computeIfAbsent(channelId, k -> new Subscribers())
+                .add(botId.getMostSignificantBits(), botId.getLeastSignificantBits()));
+        channels = loaded;
+    }
+
+    public Snapshot snapshot(String channelId) {
+        Subscribers subscribers = channels.get(channelId);
+        return subscribers != null ? subscribers.snapshot() : Snapshot.EMPTY;
+    }
+
+    public void add(String channelId, String botId) {
+        UUID uuid = UUID.fromString(botId);
+        channels.computeIfAbsent(channelId, k -> new Subscribers())
+                .add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public void remove(String channelId, String botId) {
+        Subscribers subscribers = channels.get(channelId);
+        if (subscribers != null) {
+            UUID uuid = UUID.fromString(botId);
+            subscribers.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+    }
+
+    public void remove(String botId) {
+        UUID uuid = UUID.fromString(botId);
+        for (Subscribers subscribers : channels.values()) {
+            subscribers.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static int compare(long msb1, long lsb1, long msb2, long lsb2) {
+        int cmp = Long.compare(msb1, msb2);
+        return cmp != 0 ? cmp : Long.compare(lsb1, lsb2);
+    }
+
+    /**
+     * @return index of the bot if present, otherwise -(insertion point) - 1
+     */
+    private static int search(long[] ids, int from, int to, long msb, long lsb) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(ids[2 * mid], ids[2 * mid + 1], msb, lsb);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private static final class Subscribers {
+        private long[] ids = new long[16];
+        private int size;
+        private boolean shared;
+
+        synchronized Snapshot snapshot() {
+            shared = true;
+            return new Snapshot(ids, 0, size);
+        }
+
+        synchronized boolean add(long msb, long lsb) {
+            int pos = search(ids, 0, size, msb, lsb);
+            if (pos >= 0)
+                return false;
+
+            int at = -(pos + 1);
+            long[] target = ids;
+            if (shared || 2 * (size + 1) > ids.length) {
+                int capacity = ids.length / 2;
+                if (size + 1 > capacity)
+                    capacity += (capacity >> 1) + 1;
+                target = new long[2 * capacity];
+                System.arraycopy(ids, 0, target, 0, 2 * at);
+                shared = false;
+            }
+            System.arraycopy(ids, 2 * at, target, 2 * (at + 1), 2 * (size - at));
+            target[2 * at] = msb;
+            target[2 * at + 1] = lsb;
+            ids = target;
+            size++;
+            return true;
+        }
+
+        synchronized boolean remove(long msb, long lsb) {
+            int at = search(ids, 0, size, msb, lsb);
+            if (at < 0)
+                return false;
+
+            long[] target = ids;
+            if (shared) {
+                target = new long[ids.length];
+                System.arraycopy(ids, 0, target, 0, 2 * at);
+                shared = false;
+            }
+            System.arraycopy(ids, 2 * (at + 1), target, 2 * at, 2 * (size - at - 1));
+            ids = target;
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Immutable, sorted view over the subscribers of one channel
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[0], 0, 0);
+
+        private final long[] ids;
+        private final int from;
+        private final int to;
+
+        private Snapshot(long[] ids, int from, int to) {
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @param ids (msb, lsb) pairs in any order, sorted in place
+         */
+        static Snapshot of(long[] ids) {
+            UUID[] uuids = new UUID[ids.length / 2];
+            for (int i = 0; i < uuids.length; i++) {
+                uuids[i] = new UUID(ids[2 * i], ids[2 * i + 1]);
+            }
+            Arrays.sort(uuids); // same signed (msb, lsb) order as compare()
+            for (int i = 0; i < uuids.length; i++) {
+                ids[2 * i] = uuids[i].getMostSignificantBits();
+                ids[2 * i + 1] = uuids[i].getLeastSignificantBits();
+            }
+            return new Snapshot(ids, 0, uuids.length);
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public long msb(int i) {
+            return ids[2 * (from + i)];
+        }
+
+        public long lsb(int i) {
+            return ids[2 * (from + i) + 1];
+        }
+
+        public UUID get(int i) {
+            return new UUID(msb(i), lsb(i));
+        }
+
+        public boolean contains(UUID botId) {
+            return search(ids, from, to, botId.getMostSignificantBits(), botId.getLeastSignificantBits()) >= 0;
+        }
+
+        /**
+         * @return the subscribers that sort after the given bot
+         */
+        public Snapshot tail(UUID after) {
+            int pos = search(ids, from, to, after.getMostSignificantBits(), after.getLeastSignificantBits());
+            int start = pos >= 0 ? pos + 1 : -(pos + 1);
+            return new Snapshot(ids, start, to);
+        }
+
+        public Snapshot slice(int start, int end) {
+            if (start < 0 || end > size() || start > end)
+                throw new IndexOutOfBoundsException(String.format("slice [%d, %d) of %d", start, end, size()));
+            return new Snapshot(ids, from + start, from + end);
+        }
+
+        /**
+         * @param exclude bot to leave out, typically the channel admin. Can be null
+         * @return bot ids as Strings, ready to be serialized
+         */
+        public List<String> botIds(UUID exclude) {
+            ArrayList<String> ret = new ArrayList<>(size());
+            for (int i = 0; i < size(); i++) {
+                if (exclude != null
+                        && msb(i) == exclude.getMostSignificantBits()
+                        && lsb(i) == exclude.getLeastSignificantBits())
+                    continue;
+                ret.add(get(i).toString());
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.wire.bots.channels;
+
+import com.waz.model.Messages;
+import com.wire.bots.sdk.assets.IGeneric;
+
+import java.util.Base64;
+
+/**
+ * Text message sent under a message id of our choosing, the admin's, so that every subscriber's copy of a
+ * post can be revoked and edited by that one id, see {@link Ledger}.
+ */
+class TextPost implements IGeneric {
+    private final Messages.GenericMessage message;
+
+    private TextPost(Messages.GenericMessage message) {
+        this.message = message;
+    }
+
+    static TextPost text(String messageId, String text) {
+        return new TextPost(Messages.GenericMessage.newBuilder()
+                .setMessageId(messageId)
+                .setText(Messages.Text.newBuilder().setContent(text))
+                .build());
+    }
+
+    /**
+     * @param messageId id of the edited post, replaces `replacing` from now on
+     */
+    static TextPost edit(String messageId, String replacing, String text) {
+        return new TextPost(Messages.GenericMessage.newBuilder()
+                .setMessageId(messageId)
+                .setEdited(Messages.MessageEdit.newBuilder()
+                        .setReplacingMessageId(replacing)
+                        .setText(Messages.Text.newBuilder().setContent(text)))
+                .build());
+    }
+
+    /**
+     * @param payload as returned by {@link #encode()}
+     */
+    static TextPost decode(String payload) throws Exception {
+        return new TextPost(Messages.GenericMessage.parseFrom(Base64.getDecoder().decode(payload)));
+    }
+
+    /**
+     * @return the message as text, to be kept in the outbox or the dead letters
+     */
+    String encode() {
+        return Base64.getEncoder().encodeToString(message.toByteArray());
+    }
+
+    String getMessageId() {
+        return message.getMessageId();
+    }
+
+    public Messages.GenericMessage createGenericMsg() {
+        return message;
+    }
+}
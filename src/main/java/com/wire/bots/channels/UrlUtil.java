@@ -1,32 +1,69 @@
 package com.wire.bots.channels;
 
-import org.jsoup.Connection;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
+import org.jsoup.nodes.Element;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 class UrlUtil {
-    static String extractPagePreview(String url) throws IOException {
-        Connection con = Jsoup.connect(url);
-        Document doc = con.get();
+    private static final int TIMEOUT = 5_000;               // millis
+    private static final int MAX_BODY_SIZE = 512 * 1024;    // the <head> is all we need
+    private static final com.google.common.cache.Cache<String, Preview> previews = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
 
-        Elements metaOgImage = doc.select("meta[property=og:image]");
-        if (metaOgImage != null) {
-            return metaOgImage.attr("content");
+    /**
+     * Fetches and parses the page once for all of its metadata. Results are kept for an hour, so a link
+     * posted again, or a replayed broadcast, does not hit the site. Failed fetches are not cached.
+     */
+    static Preview extractPreview(String url) throws IOException {
+        try {
+            return previews.get(url, () -> fetch(url));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
         }
-        return null;
     }
 
-    static String extractPageTitle(String url) throws IOException {
-        Connection con = Jsoup.connect(url);
-        Document doc = con.get();
+    private static Preview fetch(String url) throws IOException {
+        Document doc = Jsoup.connect(url)
+                .timeout(TIMEOUT)
+                .maxBodySize(MAX_BODY_SIZE)
+                .get();
 
-        Elements title = doc.select("meta[property=og:title]");
-        if (title != null) {
-            return title.attr("content");
+        return preview(doc);
+    }
+
+    static Preview preview(Document doc) {
+        String title = meta(doc, "meta[property=og:title]");
+        Element image = doc.select("meta[property=og:image]").first();
+        String imageUrl = image != null ? image.absUrl("content") : "";  // og:image may be relative to the page
+        return new Preview(title != null ? title : doc.title(),
+                imageUrl.isEmpty() ? null : imageUrl);
+    }
+
+    @Nullable
+    private static String meta(Document doc, String query) {
+        String content = doc.select(query).attr("content");
+        return content.isEmpty() ? null : content;
+    }
+
+    static class Preview {
+        final String title;
+        @Nullable
+        final String image;         // absolute og:image url
+
+        Preview(String title, @Nullable String image) {
+            this.title = title;
+            this.image = image;
         }
-        return doc.title();
     }
 }
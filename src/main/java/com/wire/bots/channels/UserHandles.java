@@ -0,0 +1,55 @@
+package com.wire.bots.channels;
+
+import com.google.common.cache.CacheBuilder;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.server.model.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles of the users, kept for an hour so the admin conversation can name them without asking the backend
+ * every time. Misses are looked up with one call for the whole batch.
+ */
+class UserHandles {
+    private static final com.google.common.cache.Cache<String, String> handles = CacheBuilder.newBuilder()//<UserId, Handle>
+            .maximumSize(100_000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * @return the handle, the user id if the backend does not know the user
+     */
+    static String get(WireClient client, String userId) throws IOException {
+        return get(client, Collections.singletonList(userId)).getOrDefault(userId, userId);
+    }
+
+    /**
+     * @return handles by user id. Users the backend does not know are left out
+     */
+    static HashMap<String, String> get(WireClient client, Collection<String> userIds) throws IOException {
+        HashMap<String, String> ret = new HashMap<>();
+        ArrayList<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            String handle = handles.getIfPresent(userId);
+            if (handle != null)
+                ret.put(userId, handle);
+            else
+                missing.add(userId);
+        }
+
+        if (!missing.isEmpty()) {
+            for (User user : client.getUsers(missing)) {
+                if (user.handle != null) {
+                    handles.put(user.id, user.handle);
+                    ret.put(user.id, user.handle);
+                }
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,140 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import com.wire.bots.channels.model.Channel;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets the node hot before it takes traffic: loads every channel and touches its subscribers, uploads the
+ * intro pictures and opens the admins' clients (Redis), and runs a few fan-outs against clients that do
+ * nothing, so the send path is compiled and the dispatcher's threads exist. Reports unhealthy until it is
+ * done, so the load balancer holds traffic meanwhile. Failures are logged and do not block readiness.
+ */
+class Warmup extends HealthCheck implements Managed {
+    private static final int ROUNDS = 20;
+    private static final int SUBSCRIBERS = 1_000;
+
+    private final ChannelCache channels;
+    private final SubscriberIndex subscribers;
+    private final ClientRepo repo;
+    private final Broadcaster rehearsal;
+    private final Thread thread = new Thread(this::run, "warmup");
+    private final CountDownLatch sent = new CountDownLatch(ROUNDS * SUBSCRIBERS);
+    private volatile boolean ready;
+
+    Warmup(Config config,
+           ChannelCache channels,
+           SubscriberIndex subscribers,
+           ClientRepo repo,
+           Dispatcher dispatcher,
+           RetryScheduler retries,
+           MediaSpool spool) {
+        this.channels = channels;
+        this.subscribers = subscribers;
+        this.repo = repo;
+
+        WireClient noop = (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                new Class<?>[]{WireClient.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("deleteMessage"))
+                        sent.countDown();
+                    return null;
+                });
+        ClientRepo noopRepo = new ClientRepo(null, null, null) {
+            @Override
+            public WireClient getWireClient(String botId) {
+                return noop;
+            }
+        };
+
+        SubscriberIndex bots = new SubscriberIndex(null);
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            bots.add("warmup", UUID.randomUUID().toString());
+        }
+
+        // own metrics, so the warm-up does not show up as traffic
+        MetricRegistry metrics = new MetricRegistry();
+        this.rehearsal = new Broadcaster(noopRepo,
+                null,
+                bots,
+                dispatcher,
+                null,
+                null,
+                new AdaptiveLimiter("warmup", config.limiter, config.getMaxInFlight(), metrics),
+                retries,
+                spool,
+                null,
+                metrics);
+        thread.setDaemon(true);
+    }
+
+    @Override
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        thread.interrupt();
+    }
+
+    @Override
+    protected Result check() {
+        return ready ? Result.healthy() : Result.unhealthy("Warming up");
+    }
+
+    private void run() {
+        long s = System.nanoTime();
+        try {
+            Collection<Channel> loaded = channels.load();
+            int subs = 0;
+            for (Channel channel : loaded) {
+                subs += subscribers.snapshot(channel.id).size();
+                warmup(channel);
+            }
+            Logger.info("Warmup: loaded %d channels, %d subscribers", loaded.size(), subs);
+
+            rehearse();
+        } catch (InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            Logger.error("Warmup: %s", e);
+        }
+
+        ready = true;
+        Logger.info("Warmup: ready in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s));
+    }
+
+    private void warmup(Channel channel) {
+        if (channel.admin == null)
+            return;
+        try {
+            WireClient admin = repo.getWireClient(channel.admin);
+            if (admin != null && channel.introPic != null)
+                Cache.getPicture(admin, channel.introPic);
+        } catch (Exception e) {
+            Logger.warning("Warmup: channel: %s, error: %s", channel.id, e);
+        }
+    }
+
+    private void rehearse() throws Exception {
+        Channel channel = new Channel();
+        channel.id = "warmup";
+        channel.name = "warmup";
+        for (int i = 0; i < ROUNDS; i++) {
+            rehearsal.revokeBroadcast(channel, UUID.randomUUID().toString());
+        }
+        if (!sent.await(1, TimeUnit.MINUTES))
+            Logger.warning("Warmup: %d sends did not finish", sent.getCount());
+    }
+}
@@ -1,49 +1,241 @@
 package com.wire.bots.channels.clients;
 
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
-import com.wire.bots.channels.Service;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.bots.channels.Config;
 import com.wire.bots.channels.model.BatchForward;
-import com.wire.bots.sdk.models.TextMessage;
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.client.JerseyClientBuilder;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.util.EntityUtils;
 
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import java.util.Collection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
-public class ForwardClient {
+/**
+ * Non blocking client for the /admin/forward resources of the worker nodes. Bots are routed to the
+ * workers by consistent hashing on the bot id, so a bot's crypto session is always used on the same
+ * node while that node is healthy. Workers are health checked periodically; the bots of a worker that
+ * cannot be connected to or is down are re-routed to the next healthy worker on the ring. A worker that got
+ * the batch owns it, whatever it answers: it may have sent part of it already and retries its own failures.
+ */
+public class ForwardClient implements Managed {
+    private static final ObjectMapper mapper = new ObjectMapper();
 
-    private static final WebTarget target;
+    private final List<String> workers;
+    private final Config.Forward config;
+    private final HashRing ring;
+    private final Set<String> down = ConcurrentHashMap.newKeySet();
+    private final CloseableHttpAsyncClient client;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "forward-health");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    static {
-        ClientConfig cfg = new ClientConfig(JacksonJsonProvider.class);
-        target = JerseyClientBuilder
-                .createClient(cfg)
-                .target(Service.CONFIG.host)
-                .path("admin")
-                .path("forward");
+    public ForwardClient(List<String> workers, Config.Forward config) throws IOException {
+        this.workers = workers;
+        this.config = config;
+        this.ring = new HashRing(workers);
+
+        PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+        manager.setMaxTotal(config.maxConnections);
+        manager.setDefaultMaxPerRoute(config.maxConnectionsPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) config.connectTimeout.toMilliseconds())
+                .setSocketTimeout((int) config.timeout.toMilliseconds())
+                .setConnectionRequestTimeout((int) config.timeout.toMilliseconds())
+                .build();
+
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(manager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    @Override
+    public void start() {
+        client.start();
+        long interval = config.healthInterval.toMilliseconds();
+        scheduler.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduler.shutdownNow();
+        client.close();
     }
 
-    public static int forward(String bot, TextMessage msg) {
-        Response response = target.
-                path(bot).
-                request().
-                post(Entity.entity(msg.getText(), MediaType.TEXT_PLAIN));
+    public CompletableFuture<Integer> forward(String bot, String text) {
+        String worker = ring.route(bot, this::isHealthy);
+        HttpPost post = new HttpPost(String.format("%s/admin/forward/%s", worker, bot));
+        return execute(post, text.getBytes(StandardCharsets.UTF_8), ContentType.TEXT_PLAIN);
+    }
 
-        return response.getStatus();
+    /**
+     * Groups the bots by the worker currently responsible for them
+     */
+    public Map<String, List<String>> partition(Collection<String> bots) {
+        HashMap<String, List<String>> ret = new HashMap<>();
+        for (String bot : bots) {
+            ret.computeIfAbsent(ring.route(bot, this::isHealthy), k -> new ArrayList<>()).add(bot);
+        }
+        return ret;
     }
 
-    public static int forward(Collection<String> bots, TextMessage msg) {
+    /**
+     * Forwards the batch to the worker. Should the worker be unreachable, it is marked as down and the bots
+     * are re-routed to the remaining workers.
+     *
+     * @return bots that none of the workers accepted
+     */
+    public CompletableFuture<List<String>> forward(String worker, List<String> bots, String text) {
+        return forward(worker, bots, text, workers.size() - 1);
+    }
+
+    public int getMaxConnections() {
+        return config.maxConnections;
+    }
+
+    private CompletableFuture<List<String>> forward(String worker, List<String> bots, String text, int reroutes) {
         BatchForward batch = new BatchForward();
         batch.bots = bots;
-        batch.payload = msg.getText();
-        Response response = target.
-                path("batch").
-                request().
-                put(Entity.entity(batch, MediaType.APPLICATION_JSON));
+        batch.payload = text;
+
+        CompletableFuture<Integer> put;
+        try {
+            HttpPut request = new HttpPut(String.format("%s/admin/forward/batch", worker));
+            put = execute(request, mapper.writeValueAsBytes(batch), ContentType.APPLICATION_JSON);
+        } catch (IOException e) {
+            put = new CompletableFuture<>();
+            put.completeExceptionally(e);
+        }
+
+        return put.handle((status, e) -> {
+            Throwable error = e instanceof CompletionException ? e.getCause() : e;
+            if (error == null && status == 200)
+                return CompletableFuture.completedFuture(Collections.<String>emptyList());
+
+            // the worker answers 200 once it started sending, anything else means none of the bots was sent to
+            if (error == null) {
+                Logger.warning("ForwardClient: %s rejected %d bots, status: %d", worker, bots.size(), status);
+                return CompletableFuture.completedFuture(bots);
+            }
+
+            // the request went out: the worker may be sending still, sending the batch again would duplicate it
+            if (!isUnreachable(error)) {
+                Logger.warning("ForwardClient: %s did not answer for %d bots, left to the worker: %s",
+                        worker, bots.size(), error.getMessage());
+                return CompletableFuture.completedFuture(Collections.<String>emptyList());
+            }
+
+            Logger.warning("ForwardClient: %s is unreachable: %s", worker, error.getMessage());
+            down.add(worker);
+            if (reroutes == 0)
+                return CompletableFuture.completedFuture(bots);
+
+            List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+            for (Map.Entry<String, List<String>> partition : partition(bots).entrySet()) {
+                futures.add(forward(partition.getKey(), partition.getValue(), text, reroutes - 1));
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .thenApply(v -> {
+                        List<String> failed = new ArrayList<>();
+                        for (CompletableFuture<List<String>> future : futures) {
+                            failed.addAll(future.join());
+                        }
+                        return failed;
+                    });
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * @return true if the request was never sent: the connection could not be made
+     */
+    private static boolean isUnreachable(Throwable e) {
+        return e instanceof ConnectException
+                || e instanceof ConnectTimeoutException
+                || e instanceof UnknownHostException;
+    }
+
+    private boolean isHealthy(String worker) {
+        return !down.contains(worker);
+    }
+
+    private void checkHealth() {
+        for (String worker : workers) {
+            execute(new HttpGet(String.format("%s/healthcheck", worker)), null, null)
+                    .whenComplete((status, e) -> {
+                        if (e == null && status == 200) {
+                            if (down.remove(worker))
+                                Logger.info("ForwardClient: %s is back", worker);
+                        } else if (down.add(worker)) {
+                            Logger.warning("ForwardClient: %s is down: %s", worker, e != null ? e.getMessage() : status);
+                        }
+                    });
+        }
+    }
+
+    private CompletableFuture<Integer> execute(HttpRequestBase request, byte[] body, ContentType type) {
+        CompletableFuture<Integer> ret = new CompletableFuture<>();
+        try {
+            if (body != null && request instanceof HttpEntityEnclosingRequestBase) {
+                if (config.compression) {
+                    body = gzip(body);
+                    request.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                }
+                ((HttpEntityEnclosingRequestBase) request).setEntity(new ByteArrayEntity(body, type));
+            }
+
+            client.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    ret.complete(response.getStatusLine().getStatusCode());
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    ret.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    ret.cancel(false);
+                }
+            });
+        } catch (Exception e) {
+            ret.completeExceptionally(e);
+        }
+        return ret;
+    }
 
-        return response.getStatus();
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
     }
 }
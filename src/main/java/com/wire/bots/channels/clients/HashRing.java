@@ -0,0 +1,65 @@
+package com.wire.bots.channels.clients;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Consistent hash ring over the worker nodes. Every node is placed on the ring many times so that the
+ * bots spread evenly and adding or removing a node moves only ~1/n of them.
+ */
+class HashRing {
+    private static final int REPLICAS = 128;
+    private static final HashFunction hash = Hashing.murmur3_128();
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    HashRing(Collection<String> nodes) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("HashRing needs at least one node");
+
+        for (String node : nodes) {
+            for (int i = 0; i < REPLICAS; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return the node owning the key
+     */
+    String route(String key) {
+        return route(key, node -> true);
+    }
+
+    /**
+     * @param available nodes that can be picked
+     * @return the first available node clockwise from the key. If none is available, the owner of the key
+     */
+    String route(String key, Predicate<String> available) {
+        long h = hash(key);
+        String owner = null;
+        for (Map.Entry<Long, String> entry : ring.tailMap(h).entrySet()) {
+            if (owner == null)
+                owner = entry.getValue();
+            if (available.test(entry.getValue()))
+                return entry.getValue();
+        }
+        for (Map.Entry<Long, String> entry : ring.headMap(h).entrySet()) {
+            if (owner == null)
+                owner = entry.getValue();
+            if (available.test(entry.getValue()))
+                return entry.getValue();
+        }
+        return owner;
+    }
+
+    private static long hash(String key) {
+        return hash.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,13 @@
+package com.wire.bots.channels.model;
+
+public class Asset {
+    public String url;
+    public String key;
+    public String token;
+    public byte[] otrKey;
+    public byte[] sha256;
+    public String mimeType;
+    public long size;
+    public int width;
+    public int height;
+}
@@ -0,0 +1,12 @@
+package com.wire.bots.channels.model;
+
+import java.util.UUID;
+
+public class Broadcast {
+    public UUID id;
+    public String channel;
+    public String type;
+    public String payload;
+    public UUID cursor;
+    public String status;
+}
@@ -0,0 +1,11 @@
+package com.wire.bots.channels.model;
+
+import java.util.UUID;
+
+public class BroadcastSlice {
+    public UUID broadcast;
+    public UUID first;
+    public UUID last;
+    public int delivered;
+    public int failed;
+}
@@ -0,0 +1,12 @@
+package com.wire.bots.channels.model;
+
+import java.util.UUID;
+
+public class DeadLetter {
+    public long id;
+    public UUID bot;
+    public String channel;
+    public String type;
+    public String payload;
+    public String error;
+}
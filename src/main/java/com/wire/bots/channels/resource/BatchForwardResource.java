@@ -1,7 +1,10 @@
 package com.wire.bots.channels.resource;
 
+import com.wire.bots.channels.AdaptiveLimiter;
 import com.wire.bots.channels.Database;
-import com.wire.bots.channels.Service;
+import com.wire.bots.channels.RetryScheduler;
+import com.wire.bots.channels.StateLoader;
+import com.wire.bots.channels.SubscriberIndex;
 import com.wire.bots.channels.model.BatchForward;
 import com.wire.bots.sdk.ClientRepo;
 import com.wire.bots.sdk.WireClient;
@@ -9,48 +12,52 @@ import com.wire.bots.sdk.exceptions.HttpException;
 import com.wire.bots.sdk.exceptions.MissingStateException;
 import com.wire.bots.sdk.tools.Logger;
 
+import javax.annotation.Nullable;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeoutException;
 
 @Path("/forward/batch")
 @Consumes(MediaType.APPLICATION_JSON)
 public class BatchForwardResource {
 
     private final ClientRepo repo;
+    private final StateLoader states;
+    private final Database database;
+    private final SubscriberIndex subscribers;
+    private final AdaptiveLimiter limiter;
+    private final RetryScheduler retries;
 
-    public BatchForwardResource(ClientRepo repo) {
+    public BatchForwardResource(ClientRepo repo,
+                                @Nullable StateLoader states,
+                                Database database,
+                                SubscriberIndex subscribers,
+                                AdaptiveLimiter limiter,
+                                RetryScheduler retries) {
         this.repo = repo;
+        this.states = states;
+        this.database = database;
+        this.subscribers = subscribers;
+        this.limiter = limiter;
+        this.retries = retries;
     }
 
     @PUT
     public Response forward(BatchForward batch) throws Exception {
-        Database database = new Database(Service.CONFIG.getPostgres());
-
         int success = 0;
+        if (states != null)
+            states.prefetch(batch.bots);
+
+        // nothing may end the request half way: the caller takes a failure as none of the bots having been sent to
         for (String botId : batch.bots) {
             try {
-                WireClient wireClient = repo.getWireClient(botId);
-                if (wireClient == null) {
-                    boolean unsubscribed = database.unsubscribe(botId);
-                    Logger.warning("Unsubscribed: %s, %s", botId, unsubscribed);
-                    repo.purgeBot(botId);
-                    continue;
-                }
-
-                wireClient.sendText(batch.payload);
-                success++;
-            } catch (HttpException e) {
-                if (e.getStatusCode() == 404) {
-                    repo.purgeBot(botId);
-                }
-            } catch (MissingStateException e) {
-                database.unsubscribe(botId);
-                repo.purgeBot(botId);
+                if (forward(botId, batch.payload))
+                    success++;
             } catch (Exception e) {
-                Logger.warning("BatchForwardResource.forward: Bot: %s. %s", botId, e);
+                Logger.error("BatchForwardResource.forward: Bot: %s. %s", botId, e);
             }
         }
         //Logger.info("Forwarded: %d out of %d", success, batch.bots.size());
@@ -58,4 +65,49 @@ public class BatchForwardResource {
                 ok().
                 build();
     }
-}
\ No newline at end of file
+
+    private boolean forward(String botId, String payload) throws Exception {
+        try {
+            WireClient wireClient = repo.getWireClient(botId);
+            if (wireClient == null) {
+                boolean unsubscribed = database.unsubscribe(botId);
+                subscribers.remove(botId);
+                Logger.warning("Unsubscribed: %s, %s", botId, unsubscribed);
+                repo.purgeBot(botId);
+                return false;
+            }
+
+            if (!limiter.acquire()) {
+                Logger.warning("BatchForwardResource.forward: Bot: %s. Throttled", botId);
+                retries.failed(RetryScheduler.Delivery.text(botId, payload), new TimeoutException("Throttled"));
+                return false;
+            }
+
+            long start = System.nanoTime();
+            AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.SUCCESS;
+            try {
+                wireClient.sendText(payload);
+            } catch (Exception e) {
+                outcome = AdaptiveLimiter.classify(e);
+                throw e;
+            } finally {
+                limiter.release(System.nanoTime() - start, outcome);
+            }
+            return true;
+        } catch (HttpException e) {
+            if (e.getStatusCode() == 404) {
+                repo.purgeBot(botId);
+            } else {
+                retries.failed(RetryScheduler.Delivery.text(botId, payload), e);
+            }
+        } catch (MissingStateException e) {
+            database.unsubscribe(botId);
+            subscribers.remove(botId);
+            repo.purgeBot(botId);
+        } catch (Exception e) {
+            Logger.warning("BatchForwardResource.forward: Bot: %s. %s", botId, e);
+            retries.failed(RetryScheduler.Delivery.text(botId, payload), e);
+        }
+        return false;
+    }
+}
@@ -18,12 +18,13 @@
 
 package com.wire.bots.channels.resource;
 
+import com.codahale.metrics.annotation.Timed;
+import com.wire.bots.channels.ChannelCache;
 import com.wire.bots.channels.Database;
 import com.wire.bots.channels.NewBotHandler;
-import com.wire.bots.channels.Service;
+import com.wire.bots.channels.PreKeyPool;
+import com.wire.bots.channels.SubscriberIndex;
 import com.wire.bots.channels.model.Channel;
-import com.wire.bots.sdk.crypto.Crypto;
-import com.wire.bots.sdk.factories.CryptoFactory;
 import com.wire.bots.sdk.factories.StorageFactory;
 import com.wire.bots.sdk.server.model.NewBot;
 import com.wire.bots.sdk.server.model.NewBotResponseModel;
@@ -34,28 +35,37 @@ import com.wire.bots.sdk.tools.Util;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 @Path("/{name}/bots")
 public class BotsResource {
     private final NewBotHandler handler;
+    private final Database database;
+    private final ChannelCache channels;
+    private final SubscriberIndex subscribers;
     private final StorageFactory storageF;
-    private final CryptoFactory cryptoF;
+    private final PreKeyPool preKeys;
 
-    public BotsResource(NewBotHandler handler, StorageFactory storageF, CryptoFactory cryptoF) {
+    public BotsResource(NewBotHandler handler, Database database, ChannelCache channels, SubscriberIndex subscribers,
+                        StorageFactory storageF, PreKeyPool preKeys) {
         this.handler = handler;
+        this.database = database;
+        this.channels = channels;
+        this.subscribers = subscribers;
         this.storageF = storageF;
-        this.cryptoF = cryptoF;
+        this.preKeys = preKeys;
     }
 
     @POST
+    @Timed
     public Response newBot(@HeaderParam("Authorization") String auth,
                            @PathParam("name") String channelId,
                            NewBot newBot) throws Exception {
 
-        Database database = new Database(Service.CONFIG.getPostgres());
-        Channel channel = database.getChannel(channelId);
+        Channel channel = channels.getChannel(channelId);
         if (channel == null) {
             Logger.warning("Unknown Channel: %s.", channelId);
             return Response.
@@ -72,39 +82,50 @@ public class BotsResource {
         }
 
         String botId = newBot.id;
-        State storage = storageF.create(botId);
-
-        if (!storage.saveState(newBot)) {
-            Logger.error("Failed to save the state. Bot: %s, Channel: %s", botId, channel.id);
+        Future<NewBotResponseModel> keys;
+        try {
+            keys = preKeys.generate(botId, newBot.conversation.members.size() * 8);
+        } catch (RejectedExecutionException e) {
+            Logger.warning("Too many joins, rejecting Bot: %s, Channel: %s", botId, channel.id);
             return Response.
-                    status(409).
+                    status(503).
                     build();
         }
 
-        if (!database.insertSubscriber(botId, channel.id)) {
-            Logger.error("Failed to save the channel id into storage. Bot: %s, Channel: %s", botId, channel.id);
-            return Response.
-                    status(409).
-                    build();
-        }
+        // every early return leaves the keys behind, they must not keep a generator busy
+        try {
+            State storage = storageF.create(botId);
 
-        if (!handler.onNewBot(channel.id, newBot)) {
-            return Response.
-                    status(409).
-                    build();
-        }
+            if (!storage.saveState(newBot)) {
+                Logger.error("Failed to save the state. Bot: %s, Channel: %s", botId, channel.id);
+                return Response.
+                        status(409).
+                        build();
+            }
 
-        NewBotResponseModel ret = new NewBotResponseModel();
-        ret.name = channel.name;
+            if (!database.insertSubscriber(botId, channel.id)) {
+                Logger.error("Failed to save the channel id into storage. Bot: %s, Channel: %s", botId, channel.id);
+                return Response.
+                        status(409).
+                        build();
+            }
+            subscribers.add(channel.id, botId);
 
-        try (Crypto crypto = cryptoF.create(botId)) {
-            ret.lastPreKey = crypto.newLastPreKey();
-            ret.preKeys = crypto.newPreKeys(0, newBot.conversation.members.size() * 8);
-        }
+            if (!handler.onNewBot(channel.id, newBot)) {
+                return Response.
+                        status(409).
+                        build();
+            }
+
+            NewBotResponseModel ret = preKeys.get(keys);
+            ret.name = channel.name;
 
-        return Response.
-                ok(ret).
-                status(201).
-                build();
+            return Response.
+                    ok(ret).
+                    status(201).
+                    build();
+        } finally {
+            preKeys.cancel(keys);
+        }
     }
 }
\ No newline at end of file
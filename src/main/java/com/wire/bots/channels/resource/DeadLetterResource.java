@@ -0,0 +1,28 @@
+package com.wire.bots.channels.resource;
+
+import com.wire.bots.channels.RetryScheduler;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+
+@Path("/deadletters")
+@Produces(MediaType.APPLICATION_JSON)
+public class DeadLetterResource {
+
+    private final RetryScheduler retries;
+
+    public DeadLetterResource(RetryScheduler retries) {
+        this.retries = retries;
+    }
+
+    @POST
+    @Path("/replay")
+    public Response replay(@QueryParam("limit") @DefaultValue("1000") int limit) throws Exception {
+        int replayed = retries.replay(limit);
+        return Response.
+                ok(Collections.singletonMap("replayed", replayed)).
+                build();
+    }
+}
@@ -1,7 +1,7 @@
 package com.wire.bots.channels.resource;
 
-import com.wire.bots.channels.Config;
-import com.wire.bots.channels.Database;
+import com.wire.bots.channels.ChannelCache;
+import com.wire.bots.channels.StripedExecutor;
 import com.wire.bots.channels.model.Channel;
 import com.wire.bots.sdk.ClientRepo;
 import com.wire.bots.sdk.MessageHandlerBase;
@@ -14,15 +14,18 @@ import com.wire.bots.sdk.tools.Util;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.RejectedExecutionException;
 
 @Consumes(MediaType.APPLICATION_JSON)
 @Path("/{name}/bots/{bot}/messages")
 public class MessageResource extends MessageResourceBase {
-    private final Config conf;
+    private final ChannelCache channels;
+    private final StripedExecutor ingest;
 
-    public MessageResource(MessageHandlerBase handler, ClientRepo repo, Config conf) {
+    public MessageResource(MessageHandlerBase handler, ClientRepo repo, ChannelCache channels, StripedExecutor ingest) {
         super(handler, repo);
-        this.conf = conf;
+        this.channels = channels;
+        this.ingest = ingest;
     }
 
     @POST
@@ -31,8 +34,7 @@ public class MessageResource extends MessageResourceBase {
                                @PathParam("bot") String bot,
                                InboundMessage inbound) throws Exception {
 
-        Database database = new Database(conf.getPostgres());
-        Channel channel = database.getChannel(channelId);
+        Channel channel = channels.getChannel(channelId);
         if (channel == null) {
             Logger.warning("Unknown channel: %s.", channelId);
             return Response.
@@ -57,9 +59,18 @@ public class MessageResource extends MessageResourceBase {
         }
 
         try {
-            handleMessage(inbound, wireClient);
-        } catch (Exception e) {
-            Logger.error("newMessage: Bot: %s, type: %s, error: %s", bot, inbound.type, e);
+            ingest.execute(bot, () -> {
+                try {
+                    handleMessage(inbound, wireClient);
+                } catch (Exception e) {
+                    Logger.error("newMessage: Bot: %s, type: %s, error: %s", bot, inbound.type, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logger.warning("newMessage: Bot: %s, type: %s. Ingest queue is full", bot, inbound.type);
+            return Response.
+                    status(503).
+                    build();
         }
 
         return Response.
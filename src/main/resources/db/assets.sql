@@ -0,0 +1,14 @@
+-- Pictures uploaded from a url (intro pictures, link previews), so they are uploaded only once
+
+CREATE TABLE IF NOT EXISTS Assets (
+    url VARCHAR PRIMARY KEY,
+    key VARCHAR NOT NULL,
+    token VARCHAR,
+    otrKey BYTEA NOT NULL,
+    sha256 BYTEA NOT NULL,
+    mimeType VARCHAR NOT NULL,
+    size BIGINT NOT NULL,
+    width INT NOT NULL,
+    height INT NOT NULL,
+    created TIMESTAMP NOT NULL DEFAULT now()
+);
@@ -0,0 +1,14 @@
+-- Sends that kept failing after all retries, kept until they are replayed
+
+CREATE TABLE IF NOT EXISTS DeadLetters (
+    id BIGSERIAL PRIMARY KEY,
+    bot UUID NOT NULL,
+    channel VARCHAR,
+    type VARCHAR NOT NULL,
+    payload TEXT NOT NULL,
+    error TEXT,
+    created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Set while a replay is in flight; the row is deleted once the replay went through or was dropped
+ALTER TABLE DeadLetters ADD COLUMN IF NOT EXISTS claimed TIMESTAMP;
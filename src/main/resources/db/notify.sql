@@ -0,0 +1,36 @@
+-- Publishes changes of Channels and Subscribers so every replica can invalidate its caches
+
+CREATE OR REPLACE FUNCTION notify_channel_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('channels_changed', OLD.id::text);
+    ELSE
+        PERFORM pg_notify('channels_changed', NEW.id::text);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_subscriber_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('subscribers_changed', TG_OP || ',' || OLD.botId::text || ',' || OLD.channel::text);
+    ELSE
+        PERFORM pg_notify('subscribers_changed', TG_OP || ',' || NEW.botId::text || ',' || NEW.channel::text);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'channels_changed') THEN
+        CREATE TRIGGER channels_changed AFTER INSERT OR UPDATE OR DELETE ON Channels
+            FOR EACH ROW EXECUTE PROCEDURE notify_channel_changed();
+    END IF;
+    IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'subscribers_changed') THEN
+        CREATE TRIGGER subscribers_changed AFTER INSERT OR UPDATE OR DELETE ON Subscribers
+            FOR EACH ROW EXECUTE PROCEDURE notify_subscriber_changed();
+    END IF;
+END;
+$$;
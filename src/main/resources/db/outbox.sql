@@ -0,0 +1,23 @@
+-- Broadcasts that are written before the fan-out and checkpointed while it progresses
+
+CREATE TABLE IF NOT EXISTS Broadcasts (
+    id UUID PRIMARY KEY,
+    channel VARCHAR NOT NULL,
+    type VARCHAR NOT NULL,
+    payload TEXT NOT NULL,
+    cursor UUID,                                -- every subscriber up to and including this bot is done
+    status VARCHAR NOT NULL DEFAULT 'running',
+    created TIMESTAMP NOT NULL DEFAULT now(),
+    updated TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS broadcasts_status ON Broadcasts (status);
+
+CREATE TABLE IF NOT EXISTS BroadcastSlices (
+    broadcast UUID NOT NULL REFERENCES Broadcasts (id) ON DELETE CASCADE,
+    first UUID NOT NULL,
+    last UUID NOT NULL,
+    delivered INT NOT NULL,
+    failed INT NOT NULL,
+    PRIMARY KEY (broadcast, first)
+);
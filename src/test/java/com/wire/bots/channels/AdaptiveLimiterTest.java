@@ -0,0 +1,54 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void test() throws InterruptedException {
+        Config.Limiter config = new Config.Limiter();
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", config, new MetricRegistry());
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        assert limiter.getLimit() == config.initial;
+
+        // every round of healthy sends opens roughly one more slot
+        for (int i = 0; i < 2 * config.initial; i++) {
+            assert limiter.acquire();
+            limiter.release(second, AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        assert limiter.getLimit() == config.initial + 1;
+        assert limiter.getInFlight() == 0;
+
+        int limit = limiter.getLimit();
+        assert limiter.acquire();
+        limiter.release(second, AdaptiveLimiter.Outcome.OVERLOAD);
+        int decreased = limiter.getLimit();
+        assert decreased < limit && decreased >= (int) (limit * config.backoff);
+
+        // the same burst of errors is only counted once per round trip
+        assert limiter.acquire();
+        limiter.release(second, AdaptiveLimiter.Outcome.OVERLOAD);
+        assert limiter.getLimit() == decreased;
+
+        assert limiter.acquire();
+        limiter.release(second, AdaptiveLimiter.Outcome.IGNORE);
+        assert limiter.getLimit() == decreased;
+    }
+
+    @Test
+    public void capped() throws InterruptedException {
+        Config.Limiter config = new Config.Limiter();
+        AdaptiveLimiter limiter = new AdaptiveLimiter("capped", config, 8, new MetricRegistry());
+
+        assert limiter.getLimit() == 8;
+        for (int i = 0; i < 64; i++) {
+            assert limiter.acquire();
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(1), AdaptiveLimiter.Outcome.SUCCESS);
+        }
+        assert limiter.getLimit() == 8;
+    }
+}
@@ -1,5 +1,6 @@
 package com.wire.bots.channels;
 
+import com.codahale.metrics.MetricRegistry;
 import com.wire.bots.channels.model.Channel;
 import com.wire.bots.channels.resource.BotsResource;
 import com.wire.bots.sdk.Configuration;
@@ -29,6 +30,8 @@ public class BotsResourceTest {
     private final static CryptoFactory cryptoFactory;
     private final static StorageFactory storageFactory;
     private final static NewBotHandler handler;
+    private final static Database database;
+    private final static ChannelCache channels;
     private static final String TOKEN = "official_token";
     private final static String admin = UUID.randomUUID().toString();
 
@@ -52,7 +55,10 @@ public class BotsResourceTest {
         channel.token = TOKEN;
         channel.admin = admin;
 
-        handler = new NewBotHandler(Service.CONFIG, null);
+        MetricRegistry metrics = new MetricRegistry();
+        database = new Database(Service.CONFIG.getDataSourceFactory().build(metrics, "test"), metrics);
+        channels = new ChannelCache(database);
+        handler = new NewBotHandler(channels, null);
 
         cryptoFactory = (botId) -> new CryptoDatabase(botId, new RedisStorage(
                 redis.host
@@ -61,7 +67,8 @@ public class BotsResourceTest {
         storageFactory = (bot) -> new RedisState(bot, redis);
 
         resources = ResourceTestRule.builder()
-                .addResource(new BotsResource(handler, storageFactory, cryptoFactory))
+                .addResource(new BotsResource(handler, database, channels, new SubscriberIndex(database), storageFactory,
+                        new PreKeyPool(cryptoFactory, new Config.PreKeys(), metrics)))
                 .build();
     }
 
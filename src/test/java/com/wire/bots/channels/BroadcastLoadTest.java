@@ -0,0 +1,234 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.bots.channels.clients.ForwardClient;
+import com.wire.bots.channels.model.BatchForward;
+import com.wire.bots.channels.model.Channel;
+import com.wire.bots.channels.resource.BatchForwardResource;
+import com.wire.bots.sdk.Configuration;
+import com.wire.bots.sdk.tools.Logger;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.util.Duration;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the outbound half of a broadcast: from {@link Broadcaster} to a {@link StubBackend}, through the
+ * local and the batch forward path, with the outbox, the limiter and the retries in place. Appends the numbers
+ * to target/loadtest.csv. Needs a local Postgres, nothing else.
+ * <p>
+ * The Service is not booted and the admin's post does not come in through MessageResource, which would need
+ * a crypto session with the stub; bot states come from {@link StubClientRepo}, not Redis.
+ * <p>
+ * mvn test -Dtest=BroadcastLoadTest -Dloadtest=true -Dloadtest.subscribers=100000 -Dloadtest.latency=5
+ * <p>
+ * Other knobs: loadtest.errors, loadtest.gone (rates 0..1), loadtest.paths (local,forward),
+ * loadtest.delivery (platform|virtual), loadtest.timeout (sec) and db.host, db.user, db.password.
+ */
+public class BroadcastLoadTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String CHANNEL = "loadtest_channel";
+
+    private final int subscribers = Integer.getInteger("loadtest.subscribers", 100_000);
+    private final long latency = Long.getLong("loadtest.latency", 5);
+    private final double errorRate = Double.parseDouble(System.getProperty("loadtest.errors", "0.01"));
+    private final double goneRate = Double.parseDouble(System.getProperty("loadtest.gone", "0.001"));
+    private final String delivery = System.getProperty("loadtest.delivery", "platform");
+    private final long timeout = Long.getLong("loadtest.timeout", 600);
+
+    @Test
+    public void test() throws Exception {
+        Assume.assumeTrue("Run with -Dloadtest=true", Boolean.getBoolean("loadtest"));
+
+        for (String path : System.getProperty("loadtest.paths", "local,forward").split(",")) {
+            run(path.trim());
+        }
+    }
+
+    private void run(String path) throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Config config = config();
+        config.forward.enabled = path.equals("forward");
+
+        try (StubBackend backend = new StubBackend(latency, errorRate, goneRate)) {
+            StubClientRepo repo = new StubClientRepo(backend);
+            ManagedDataSource dataSource = config.getDataSourceFactory().build(metrics, "loadtest");
+            dataSource.start();
+            Database database = new Database(dataSource, metrics);
+            Channel channel = seed(dataSource);
+
+            SubscriberIndex index = new SubscriberIndex(database);
+            index.load();
+
+            Dispatcher dispatcher = new Dispatcher(config, metrics);
+            AdaptiveLimiter limiter = new AdaptiveLimiter("broadcast", config.limiter, config.getMaxInFlight(), metrics);
+            RetryScheduler retries = new RetryScheduler(repo, database, limiter, config.retry);
+            Outbox outbox = new Outbox(database, config.batch, config.checkpoint);
+            HttpServer worker = worker(new BatchForwardResource(repo,
+                    null,
+                    database,
+                    index,
+                    new AdaptiveLimiter("forward", config.limiter, metrics),
+                    retries));
+            config.workers = Collections.singletonList(String.format("http://localhost:%d", worker.getAddress().getPort()));
+            ForwardClient forwardClient = new ForwardClient(config.getWorkers(), config.forward);
+
+            dispatcher.start();
+            retries.start();
+            outbox.start();
+            forwardClient.start();
+            try {
+                Broadcaster broadcaster = new Broadcaster(repo,
+                        null,
+                        index,
+                        dispatcher,
+                        forwardClient,
+                        outbox,
+                        limiter,
+                        retries,
+                        new MediaSpool(config.spool),
+                        null,
+                        metrics);
+
+                long start = System.nanoTime();
+                broadcaster.broadcast(channel, "Load test " + new Date());
+                long producer = System.nanoTime() - start;
+
+                long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+                while (backend.delivered.size() + repo.gone() < subscribers && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+
+                report(path, backend, repo, start, producer);
+            } finally {
+                forwardClient.stop();
+                outbox.stop();
+                retries.stop();
+                dispatcher.stop();
+                worker.stop(0);
+                dataSource.stop();
+            }
+        }
+    }
+
+    private Config config() {
+        Config config = new Config();
+        config.delivery = Dispatcher.Mode.valueOf(delivery);
+        config.retry.delay = Duration.milliseconds(50);
+        config.retry.maxDelay = Duration.seconds(2);
+
+        Configuration.DB conf = config.postgres = new Configuration.DB();
+        conf.host = System.getProperty("db.host", "localhost");
+        conf.port = Integer.getInteger("db.port", 5432);
+        conf.database = System.getProperty("db.name", "postgres");
+        conf.user = System.getProperty("db.user", "postgres");
+        conf.password = System.getProperty("db.password", "password");
+
+        Service.CONFIG = config;
+        return config;
+    }
+
+    /**
+     * Replaces the subscribers of the load test channel with `subscribers` fresh bots
+     */
+    private Channel seed(ManagedDataSource dataSource) throws Exception {
+        Channel channel = new Channel();
+        channel.id = CHANNEL;
+        channel.name = "Load test";
+        channel.token = UUID.randomUUID().toString();
+        channel.admin = UUID.randomUUID().toString();
+
+        try (Connection c = dataSource.getConnection();
+             Statement stmt = c.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS Subscribers (botId UUID NOT NULL PRIMARY KEY, channel VARCHAR NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS Channels (id VARCHAR NOT NULL PRIMARY KEY, name VARCHAR NOT NULL, " +
+                    "token VARCHAR NOT NULL, admin UUID, introText VARCHAR, introPicture VARCHAR, whitelist VARCHAR)");
+            stmt.execute(String.format("DELETE FROM Subscribers WHERE channel = '%s'", CHANNEL));
+            stmt.execute(String.format("DELETE FROM Channels WHERE id = '%s'", CHANNEL));
+        }
+
+        try (Connection c = dataSource.getConnection();
+             PreparedStatement channels = c.prepareStatement("INSERT INTO Channels (id, name, token, admin) VALUES (?, ?, ?, ?)");
+             PreparedStatement subs = c.prepareStatement("INSERT INTO Subscribers (botId, channel) VALUES (?, ?)")) {
+            channels.setString(1, channel.id);
+            channels.setString(2, channel.name);
+            channels.setString(3, channel.token);
+            channels.setObject(4, UUID.fromString(channel.admin));
+            channels.executeUpdate();
+
+            for (int i = 0; i < subscribers; i++) {
+                subs.setObject(1, UUID.randomUUID());
+                subs.setString(2, CHANNEL);
+                subs.addBatch();
+                if (i % 10_000 == 9_999)
+                    subs.executeBatch();
+            }
+            subs.executeBatch();
+        }
+        return channel;
+    }
+
+    /**
+     * Worker node serving /admin/forward/batch and /healthcheck
+     */
+    private static HttpServer worker(BatchForwardResource resource) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/admin/forward/batch", exchange -> {
+            int status = 200;
+            try {
+                BatchForward batch = mapper.readValue(exchange.getRequestBody(), BatchForward.class);
+                status = resource.forward(batch).getStatus();
+            } catch (Exception e) {
+                status = 500;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.createContext("/healthcheck", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
+    private void report(String path, StubBackend backend, StubClientRepo repo, long start, long producer)
+            throws Exception {
+        int delivered = backend.delivered.size();
+        double first = (backend.first.get() - start) / 1e6;
+        double duration = (backend.last.get() - start) / 1e6;
+        double rate = delivered / (duration / 1e3);
+        int undelivered = subscribers - delivered - repo.gone();
+
+        Logger.info("LoadTest %s: %d subscribers, first delivery: %.1f ms, producer: %.1f ms, " +
+                        "total: %.1f ms, %.0f msg/sec, delivered: %d, gone: %d, 503s: %d, undelivered: %d",
+                path, subscribers, first, producer / 1e6, duration, rate,
+                delivered, repo.gone(), backend.errors.get(), undelivered);
+
+        File file = new File("target/loadtest.csv");
+        boolean header = !file.exists();
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            if (header)
+                out.println("date,path,delivery,subscribers,latency,errorRate,goneRate,firstMs,producerMs,totalMs,msgPerSec,delivered,gone,errors,undelivered");
+            out.printf("%tFT%<tT,%s,%s,%d,%d,%s,%s,%.1f,%.1f,%.1f,%.0f,%d,%d,%d,%d%n",
+                    new Date(), path, delivery, subscribers, latency, errorRate, goneRate,
+                    first, producer / 1e6, duration, rate, delivered, repo.gone(), backend.errors.get(), undelivered);
+        }
+    }
+}
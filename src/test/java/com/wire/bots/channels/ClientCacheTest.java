@@ -0,0 +1,72 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientCacheTest {
+
+    @Test
+    public void test() throws Exception {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+
+        ClientRepo repo = new ClientRepo(null, null, null) {
+            @Override
+            public WireClient getWireClient(String botId) {
+                opened.incrementAndGet();
+                return (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                        new Class<?>[]{WireClient.class},
+                        (proxy, method, args) -> {
+                            switch (method.getName()) {
+                                case "close":
+                                    closed.incrementAndGet();
+                                    break;
+                                case "sendText":
+                                    sending.countDown();
+                                    evicted.await();
+                                    break;
+                            }
+                            return null;
+                        });
+            }
+        };
+        ClientCache cache = new ClientCache(repo, new Config.Clients(), new MetricRegistry());
+        String botId = "bot";
+
+        WireClient client = cache.getWireClient(botId);
+        assert cache.getWireClient(botId) == client;
+        assert opened.get() == 1;
+
+        // evicted while sending: closed once the send returns
+        Thread send = new Thread(() -> {
+            try {
+                client.sendText("hello");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        send.start();
+        sending.await();
+        cache.invalidate(botId);
+        assert closed.get() == 0;
+        evicted.countDown();
+        send.join();
+        assert closed.get() == 1 : closed.get();
+
+        // a handle kept past the eviction gets a fresh client
+        client.sendText("again");
+        assert opened.get() == 2;
+        assert cache.contains(botId);
+
+        cache.stop();
+        assert closed.get() == 2 : closed.get();
+    }
+}
@@ -1,5 +1,6 @@
 package com.wire.bots.channels;
 
+import com.codahale.metrics.MetricRegistry;
 import com.wire.bots.channels.model.Channel;
 import com.wire.bots.sdk.Configuration;
 import org.junit.Test;
@@ -11,7 +12,8 @@ public class DatabaseTest {
 
     @Test
     public void test() throws Exception {
-        Configuration.DB conf = new Configuration.DB();
+        Config config = new Config();
+        Configuration.DB conf = config.postgres = new Configuration.DB();
         conf.host = "localhost";
         conf.port = 5432;
         conf.database = "postgres";
@@ -20,7 +22,8 @@ public class DatabaseTest {
 
         String botId = UUID.randomUUID().toString();
 
-        Database db = new Database(conf);
+        MetricRegistry metrics = new MetricRegistry();
+        Database db = new Database(config.getDataSourceFactory().build(metrics, "test"), metrics);
         String channel = "test_channel_123";
 
         boolean b = db.insertSubscriber(botId, channel);
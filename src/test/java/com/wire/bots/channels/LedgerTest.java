@@ -0,0 +1,85 @@
+package com.wire.bots.channels;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LedgerTest {
+
+    @Test
+    public void test() throws Exception {
+        Config.Ledger config = new Config.Ledger();
+        config.directory = Files.createTempDirectory("ledger").toString();
+        Ledger ledger = new Ledger(config);
+        ledger.start();
+
+        String messageId = UUID.randomUUID().toString();
+        ArrayList<UUID> bots = new ArrayList<>();
+
+        // two writers on the same post, one of them past a page
+        Ledger.Writer first = ledger.create(messageId);
+        Ledger.Writer second = ledger.create(messageId);
+        append(first, 300, bots);
+        append(second, 5, bots);
+
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicReference<String> thread = new AtomicReference<>();
+        ledger.whenClosed(messageId, () -> {
+            thread.set(Thread.currentThread().getName());
+            ran.countDown();
+        });
+
+        // flushed pages are readable while the writers are open
+        ledger.flush();
+        assert ledger.read(messageId).size() == bots.size();
+
+        first.close();
+        first.close();
+        assert !ran.await(100, TimeUnit.MILLISECONDS);
+        second.close();
+        assert ran.await(5, TimeUnit.SECONDS);
+        assert thread.get().equals("ledger-action") : thread.get();
+
+        SubscriberIndex.Snapshot ids = ledger.read(messageId);
+        assert ids.size() == bots.size() : ids.size();
+        for (UUID bot : bots) {
+            assert ids.contains(bot);
+        }
+
+        // a record cut short by a crash is dropped
+        Path file = Paths.get(config.directory, messageId + ".ledger");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7}, StandardOpenOption.APPEND);
+        assert ledger.read(messageId).size() == bots.size();
+
+        String edited = UUID.randomUUID().toString();
+        ledger.rename(messageId, edited);
+        assert ledger.read(messageId) == null;
+        assert ledger.read(edited).size() == bots.size();
+
+        // nothing open: runs right away
+        AtomicReference<String> now = new AtomicReference<>();
+        ledger.whenClosed(edited, () -> now.set(Thread.currentThread().getName()));
+        assert Thread.currentThread().getName().equals(now.get());
+
+        ledger.delete(edited);
+        assert ledger.read(edited) == null;
+
+        ledger.stop();
+    }
+
+    private static void append(Ledger.Writer writer, int count, ArrayList<UUID> bots) {
+        for (int i = 0; i < count; i++) {
+            UUID bot = UUID.randomUUID();
+            writer.append(bot.getMostSignificantBits(), bot.getLeastSignificantBits());
+            bots.add(bot);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.wire.bots.channels;
+
+import io.dropwizard.util.Size;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MediaSpoolTest {
+
+    @Test
+    public void test() throws Exception {
+        Config.Spool config = new Config.Spool();
+        config.directory = Files.createTempDirectory("spool").toString();
+        config.threshold = Size.kilobytes(1);
+        MediaSpool spool = new MediaSpool(config);
+        spool.start();
+        File directory = spool.getDirectory().toFile();
+
+        byte[] small = new byte[100];
+        byte[] large = new byte[100_000];
+        new Random().nextBytes(large);
+
+        AtomicReference<byte[]> sent = new AtomicReference<>();
+        try (MediaSpool.Asset asset = spool.spool(small)) {
+            asset.send(sent::set);
+            assert sent.get() == small;
+        }
+        assert spooled(directory) == 0;
+
+        MediaSpool.Asset asset = spool.spool(large);
+        assert spooled(directory) == 1;
+        asset.send(sent::set);
+        assert Arrays.equals(sent.get(), large);
+        asset.send(sent::set);
+        assert Arrays.equals(sent.get(), large);
+
+        asset.close();
+        asset.close();
+        assert spooled(directory) == 0;
+
+        // another instance's spool is left alone
+        MediaSpool other = new MediaSpool(config);
+        other.start();
+        asset = spool.spool(large);
+        other.stop();
+        assert !other.getDirectory().toFile().exists();
+        assert spooled(directory) == 1;
+
+        spool.stop();
+        assert !directory.exists();
+    }
+
+    @Test
+    public void orphaned() throws Exception {
+        Config.Spool config = new Config.Spool();
+        config.directory = Files.createTempDirectory("spool").toString();
+
+        // left behind by a crashed instance: its lock file is there but nobody holds it
+        File crashed = Files.createTempDirectory(Paths.get(config.directory), "spool").toFile();
+        assert new File(crashed, ".lock").createNewFile();
+        assert new File(crashed, "media.spool").createNewFile();
+
+        MediaSpool running = new MediaSpool(config);
+        running.start();
+        assert !crashed.exists();
+
+        MediaSpool spool = new MediaSpool(config);
+        spool.start();
+        assert running.getDirectory().toFile().exists();
+
+        spool.stop();
+        running.stop();
+    }
+
+    private static int spooled(File directory) {
+        return directory.list((dir, name) -> name.endsWith(".spool")).length;
+    }
+}
@@ -0,0 +1,167 @@
+package com.wire.bots.channels;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.channels.model.DeadLetter;
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.exceptions.HttpException;
+import io.dropwizard.util.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetrySchedulerTest {
+    private final Config.Retry config = new Config.Retry();
+    private final List<DeadLetter> letters = new CopyOnWriteArrayList<>();
+    private final List<DeadLetter> released = new CopyOnWriteArrayList<>();
+    private final List<Long> deleted = new CopyOnWriteArrayList<>();
+    private RetryScheduler retries;
+
+    @Before
+    public void setUp() {
+        config.attempts = 3;
+        config.delay = Duration.milliseconds(2);
+        config.maxDelay = Duration.milliseconds(50);
+
+        WireClient client = (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                new Class<?>[]{WireClient.class},
+                (proxy, method, args) -> null);
+        ClientRepo repo = new ClientRepo(null, null, null) {
+            @Override
+            public WireClient getWireClient(String botId) {
+                return client;
+            }
+        };
+        Database database = new Database(null, new MetricRegistry()) {
+            @Override
+            void insertDeadLetters(Collection<DeadLetter> batch) {
+                letters.addAll(batch);
+            }
+
+            @Override
+            void releaseDeadLetters(Collection<DeadLetter> batch) {
+                released.addAll(batch);
+            }
+
+            @Override
+            void deleteDeadLetters(Collection<Long> ids) {
+                deleted.addAll(ids);
+            }
+        };
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", new Config.Limiter(), new MetricRegistry());
+        retries = new RetryScheduler(repo, database, limiter, config);
+    }
+
+    @After
+    public void tearDown() {
+        retries.stop();
+    }
+
+    @Test
+    public void delay() {
+        long delay = config.delay.toMilliseconds();
+        long maxDelay = config.maxDelay.toMilliseconds();
+
+        for (int attempt = 0; attempt < 64; attempt++) {
+            long max = Math.min(maxDelay, delay << Math.min(attempt, 30));
+            long millis = retries.delay(attempt);
+            assert millis >= max / 2 && millis <= max : attempt + ": " + millis;
+        }
+    }
+
+    @Test
+    public void retried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+        retries.submit(delivery(delivered, client -> {
+            if (calls.incrementAndGet() == 1)
+                throw new IOException("timeout");
+        }));
+
+        assert delivered.get(5, TimeUnit.SECONDS);
+        assert calls.get() == 2 : calls.get();
+
+        retries.stop();
+        assert letters.isEmpty();
+    }
+
+    @Test
+    public void permanent() throws Exception {
+        assert RetryScheduler.isPermanent(new HttpException("Gone", 410));
+        assert !RetryScheduler.isPermanent(new IOException("timeout"));
+
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+        retries.submit(delivery(delivered, client -> {
+            calls.incrementAndGet();
+            throw new HttpException("Gone", 410);
+        }));
+
+        assert !delivered.get(5, TimeUnit.SECONDS);
+        Thread.sleep(10 * config.maxDelay.toMilliseconds());
+        assert calls.get() == 1 : calls.get();
+
+        retries.stop();
+        assert letters.isEmpty();
+    }
+
+    @Test
+    public void exhausted() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+        RetryScheduler.Delivery delivery = delivery(delivered, client -> {
+            calls.incrementAndGet();
+            throw new IOException("timeout");
+        });
+        retries.submit(delivery);
+
+        assert !delivered.get(5, TimeUnit.SECONDS);
+        assert calls.get() == config.attempts + 1 : calls.get();
+
+        retries.stop();
+        assert letters.size() == 1 : letters.size();
+        DeadLetter letter = letters.get(0);
+        assert letter.type.equals(Outbox.TEXT);
+        assert letter.payload.equals("hello");
+        assert letter.error.equals("timeout");
+    }
+
+    @Test
+    public void replayed() throws Exception {
+        CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+        retries.submit(delivery(delivered, client -> {
+        }).replaying(7));
+        assert delivered.get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        retries.submit(delivery(failed, client -> {
+            throw new IOException("timeout");
+        }).replaying(8));
+        assert !failed.get(5, TimeUnit.SECONDS);
+
+        retries.stop();
+        assert letters.isEmpty();
+        assert deleted.size() == 1 && deleted.get(0) == 7 : deleted;
+        assert released.size() == 1 && released.get(0).id == 8 : released;
+        assert released.get(0).error.equals("timeout");
+    }
+
+    private static RetryScheduler.Delivery delivery(CompletableFuture<Boolean> delivered, RetryScheduler.Send send) {
+        return new RetryScheduler.Delivery(UUID.randomUUID().toString(),
+                "channel",
+                Outbox.TEXT,
+                "hello",
+                send,
+                delivered::complete);
+    }
+}
@@ -0,0 +1,42 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.Configuration;
+import com.wire.bots.sdk.server.model.NewBot;
+import com.wire.bots.sdk.state.RedisState;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+public class StateLoaderTest {
+
+    @Test
+    public void test() throws Exception {
+        Configuration.DB redis = new Configuration.DB();
+        redis.host = "localhost";
+        redis.port = 6379;
+
+        String botId = UUID.randomUUID().toString();
+        NewBot bot = new NewBot();
+        bot.id = botId;
+        bot.token = "token";
+
+        // the state is written by the SDK and has to be found under the key the loader reads
+        RedisState state = new RedisState(botId, redis);
+        state.saveState(bot);
+
+        StateLoader loader = new StateLoader(redis, new Config.States());
+        loader.start();
+        try {
+            loader.prefetch(Collections.singletonList(botId));
+            NewBot loaded = loader.take(botId);
+            assert loaded != null;
+            assert loaded.id.equals(botId);
+            assert loaded.token.equals("token");
+            assert loader.take(botId) == null;
+        } finally {
+            loader.stop();
+            state.removeState();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.wire.bots.channels;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Wire backend. Messages take `latency` millis, fail with 503 at `errorRate` and
+ * come back 410 for the `goneRate` share of the bots, picked by bot id so that retries see the same.
+ */
+class StubBackend implements AutoCloseable {
+    private final HttpServer server;
+    private final long latency;
+    private final double errorRate;
+    private final double goneRate;
+
+    final Set<String> delivered = ConcurrentHashMap.newKeySet();
+    final AtomicInteger errors = new AtomicInteger();
+    final AtomicInteger gone = new AtomicInteger();
+    final AtomicLong first = new AtomicLong();
+    final AtomicLong last = new AtomicLong();
+
+    StubBackend(long latency, double errorRate, double goneRate) throws IOException {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.goneRate = goneRate;
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/bot/messages", this::message);
+        server.createContext("/bot/assets", this::asset);
+        server.start();
+    }
+
+    String getUrl() {
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    boolean isGone(String botId) {
+        return (botId.hashCode() & 0x7fffffff) % 100_000 < goneRate * 100_000;
+    }
+
+    private void message(HttpExchange exchange) throws IOException {
+        String botId = exchange.getRequestURI().getQuery().substring("bot=".length());
+        exchange.getRequestBody().readAllBytes();
+        sleep();
+
+        if (isGone(botId)) {
+            gone.incrementAndGet();
+            reply(exchange, 410, "");
+            return;
+        }
+        if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            reply(exchange, 503, "");
+            return;
+        }
+
+        long now = System.nanoTime();
+        first.compareAndSet(0, now);
+        last.set(now);
+        delivered.add(botId);
+        reply(exchange, 201, "{}");
+    }
+
+    private void asset(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        sleep();
+        reply(exchange, 201, String.format("{\"key\":\"%s\",\"token\":\"%s\"}", UUID.randomUUID(), UUID.randomUUID()));
+    }
+
+    private void sleep() {
+        try {
+            if (latency > 0)
+                Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,61 @@
+package com.wire.bots.channels;
+
+import com.wire.bots.sdk.ClientRepo;
+import com.wire.bots.sdk.WireClient;
+import com.wire.bots.sdk.exceptions.HttpException;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves every bot to a WireClient that posts its messages, unencrypted, to the {@link StubBackend}.
+ * Stands in for the Redis bot state and the crypto sessions, neither of which a stub backend could honour.
+ * Bots the backend answered 410 for are gone, like after a purge.
+ */
+class StubClientRepo extends ClientRepo {
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final StubBackend backend;
+    private final Set<String> gone = ConcurrentHashMap.newKeySet();
+
+    StubClientRepo(StubBackend backend) {
+        super(null, null, null);
+        this.backend = backend;
+    }
+
+    @Override
+    public WireClient getWireClient(String botId) {
+        if (gone.contains(botId))
+            return null;
+
+        return (WireClient) Proxy.newProxyInstance(WireClient.class.getClassLoader(),
+                new Class<?>[]{WireClient.class},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("send") || method.getName().equals("deleteMessage"))
+                        send(botId);
+                    return null;
+                });
+    }
+
+    int gone() {
+        return gone.size();
+    }
+
+    private void send(String botId) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(backend.getUrl() + "/bot/messages?bot=" + botId))
+                .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                .build();
+        int status = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status == 410) {
+            gone.add(botId);
+            throw new HttpException("Gone", 410);
+        }
+        if (status >= 300)
+            throw new IOException("Status: " + status);
+    }
+}
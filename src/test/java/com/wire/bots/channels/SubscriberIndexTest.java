@@ -0,0 +1,48 @@
+package com.wire.bots.channels;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+public class SubscriberIndexTest {
+
+    @Test
+    public void test() {
+        SubscriberIndex index = new SubscriberIndex(null);
+        String channel = "test_channel_123";
+
+        HashSet<String> bots = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String botId = UUID.randomUUID().toString();
+            bots.add(botId);
+            index.add(channel, botId);
+        }
+        index.add(channel, bots.iterator().next());
+
+        SubscriberIndex.Snapshot snapshot = index.snapshot(channel);
+        assert snapshot.size() == bots.size();
+
+        for (int i = 1; i < snapshot.size(); i++) {
+            assert snapshot.get(i - 1).compareTo(snapshot.get(i)) < 0;
+        }
+
+        String removed = bots.iterator().next();
+        index.remove(removed);
+
+        // Snapshots handed out earlier must not change
+        assert snapshot.size() == bots.size();
+        assert snapshot.contains(UUID.fromString(removed));
+
+        SubscriberIndex.Snapshot current = index.snapshot(channel);
+        assert current.size() == bots.size() - 1;
+        assert !current.contains(UUID.fromString(removed));
+
+        List<String> botIds = current.slice(0, 10).botIds(current.get(0));
+        assert botIds.size() == 9;
+        assert bots.containsAll(botIds);
+
+        assert index.snapshot("unknown").size() == 0;
+    }
+}
@@ -0,0 +1,26 @@
+package com.wire.bots.channels;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+public class UrlUtilTest {
+
+    @Test
+    public void test() {
+        Document doc = Jsoup.parse("<html><head><title>Page</title>" +
+                        "<meta property=\"og:image\" content=\"/img/cover.png\">" +
+                        "<meta property=\"og:image\" content=\"https://cdn.example.com/second.png\">" +
+                        "</head></html>",
+                "https://example.com/news/article.html");
+
+        UrlUtil.Preview preview = UrlUtil.preview(doc);
+        assert preview.title.equals("Page");
+        assert preview.image.equals("https://example.com/img/cover.png") : preview.image;
+
+        preview = UrlUtil.preview(Jsoup.parse("<html><head><meta property=\"og:title\" content=\"Title\"></head></html>",
+                "https://example.com/"));
+        assert preview.title.equals("Title");
+        assert preview.image == null;
+    }
+}
@@ -0,0 +1,43 @@
+package com.wire.bots.channels.clients;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+public class HashRingTest {
+
+    @Test
+    public void test() {
+        HashRing ring = new HashRing(Arrays.asList("http://worker-0", "http://worker-1", "http://worker-2"));
+        HashRing grown = new HashRing(Arrays.asList("http://worker-0", "http://worker-1", "http://worker-2", "http://worker-3"));
+
+        HashMap<String, Integer> load = new HashMap<>();
+        int moved = 0;
+        int total = 30000;
+        for (int i = 0; i < total; i++) {
+            String botId = UUID.randomUUID().toString();
+            String worker = ring.route(botId);
+            assert worker.equals(ring.route(botId));
+            load.merge(worker, 1, Integer::sum);
+
+            String next = grown.route(botId);
+            if (!next.equals(worker)) {
+                assert next.equals("http://worker-3");
+                moved++;
+            }
+
+            String failover = ring.route(botId, w -> !w.equals(worker));
+            assert !failover.equals(worker);
+        }
+
+        for (int count : load.values()) {
+            assert count > total / 3 * 0.7 && count < total / 3 * 1.3;
+        }
+        assert moved > total / 4 * 0.7 && moved < total / 4 * 1.3;
+
+        String owner = ring.route("bot");
+        assert ring.route("bot", w -> false).equals(owner);
+    }
+}